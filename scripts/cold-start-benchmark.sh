@@ -0,0 +1,46 @@
+#!/usr/bin/env bash
+#
+# Measures time-to-first-response of Login and GetSRI after a cold start.
+#
+# Each run restarts the function app, waits for the restart to settle, then times the first Login call
+# followed by the first GetSRI call. Results are printed as CSV so runs before/after a change can be compared.
+#
+# Requires the Azure CLI (logged in) and curl. Configure with environment variables:
+#   RESOURCE_GROUP   Resource group of the function app (default: java-functions-group)
+#   APP_NAME         Function app name (default: azure-function-examples-1757124467573)
+#   FUNCTION_KEY     Function key used for both endpoints
+#   LOGIN_EMAIL      Test account email
+#   LOGIN_PASSWORD   Test account password
+#   RUNS             Number of cold starts to measure (default: 5)
+#   SETTLE_SECONDS   Wait after each restart before the first call (default: 30)
+#
+# Usage: scripts/cold-start-benchmark.sh > cold-start.csv
+
+set -euo pipefail
+
+RESOURCE_GROUP="${RESOURCE_GROUP:-java-functions-group}"
+APP_NAME="${APP_NAME:-azure-function-examples-1757124467573}"
+RUNS="${RUNS:-5}"
+SETTLE_SECONDS="${SETTLE_SECONDS:-30}"
+: "${FUNCTION_KEY:?FUNCTION_KEY must be set}"
+: "${LOGIN_EMAIL:?LOGIN_EMAIL must be set}"
+: "${LOGIN_PASSWORD:?LOGIN_PASSWORD must be set}"
+
+BASE_URL="https://${APP_NAME}.azurewebsites.net/api"
+
+echo "run,login_status,login_seconds,getsri_status,getsri_seconds"
+
+for run in $(seq 1 "$RUNS"); do
+    az functionapp restart --resource-group "$RESOURCE_GROUP" --name "$APP_NAME" --output none
+    sleep "$SETTLE_SECONDS"
+
+    login=$(curl -s -o /dev/null -w "%{http_code},%{time_total}" \
+        -X POST "${BASE_URL}/Login?code=${FUNCTION_KEY}" \
+        -H "Content-Type: application/json" \
+        -d "{\"email\":\"${LOGIN_EMAIL}\",\"password\":\"${LOGIN_PASSWORD}\"}")
+
+    getsri=$(curl -s -o /dev/null -w "%{http_code},%{time_total}" \
+        "${BASE_URL}/GetSRI?code=${FUNCTION_KEY}")
+
+    echo "${run},${login},${getsri}"
+done
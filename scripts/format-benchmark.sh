@@ -0,0 +1,31 @@
+#!/usr/bin/env bash
+#
+# Compares JSON, CBOR and Smile responses on real rows of SLD SRI Master, SLD Maintenance Crew and Signage.
+#
+# Reads the first ROWS rows of each table (by ID) with the columns the endpoints return, sends them through the
+# same response code as GetSRI/GetMaintenanceCrew/GetDataForImageSignage, and prints per table and format the body
+# size (uncompressed, gzip, zstd), the median time to build the response and the median time to gunzip and parse
+# it. Results are printed as CSV so runs before/after a change can be compared.
+#
+# Requires a JDK, Maven and network access to the database. Configure with environment variables:
+#   SqlConnectionString  JDBC connection string of the database (same as the function app setting)
+#   ROWS                 Rows to read from each table (default: 20000)
+#   RUNS                 Timed runs per table and format, after one warm-up (default: 7)
+#
+# Usage: scripts/format-benchmark.sh > formats.csv
+
+set -euo pipefail
+
+: "${SqlConnectionString:?SqlConnectionString must be set}"
+export SqlConnectionString
+export ROWS="${ROWS:-20000}"
+export RUNS="${RUNS:-7}"
+
+cd "$(dirname "$0")/.."
+
+CLASSPATH_FILE="$(mktemp)"
+trap 'rm -f "$CLASSPATH_FILE"' EXIT
+
+mvn -B -q test-compile dependency:build-classpath -Dmdep.outputFile="$CLASSPATH_FILE" >&2
+
+java -cp "target/classes:target/test-classes:$(cat "$CLASSPATH_FILE")" org.example.functions.FormatBenchmark
@@ -0,0 +1,15 @@
+-- Delta sync (GetTableChanges)
+--
+-- Change tracking lets GetTableChanges report deleted rows as well as inserts and updates.
+-- Tables without it fall back to Last_Update_Date (SLD tables) or ID (Signage) watermarks.
+-- Clients holding a watermark older than the retention period get 410 Gone and resync from scratch.
+
+ALTER DATABASE CURRENT SET CHANGE_TRACKING = ON (CHANGE_RETENTION = 14 DAYS, AUTO_CLEANUP = ON);
+
+ALTER TABLE dbo.[Signage] ENABLE CHANGE_TRACKING;
+ALTER TABLE dbo.[SLD SRI Master] ENABLE CHANGE_TRACKING;
+ALTER TABLE dbo.[SLD Maintenance Crew] ENABLE CHANGE_TRACKING;
+
+-- Used by the Last_Update_Date fallback
+CREATE INDEX IX_SLD_SRI_Master_Last_Update_Date ON dbo.[SLD SRI Master] (Last_Update_Date, ID);
+CREATE INDEX IX_SLD_Maintenance_Crew_Last_Update_Date ON dbo.[SLD Maintenance Crew] (Last_Update_Date, ID);
@@ -0,0 +1,19 @@
+-- Sign type dictionary (GetAllSignTypes, GetAllImagesOfType)
+--
+-- [Type] can't be indexed as it is, so type filters had to CAST it and scan the whole Signage table.
+-- Type_Key is the same value as an indexable, persisted nvarchar, and [Sign Type] gives each type a stable
+-- integer ID. The function keeps [Sign Type] up to date as Signage records are inserted.
+-- Until this is applied the function falls back to the CAST filters.
+
+ALTER TABLE dbo.[Signage] ADD Type_Key AS CAST([Type] AS nvarchar(450)) PERSISTED;
+GO
+
+CREATE INDEX IX_Signage_Type_Key ON dbo.[Signage] (Type_Key) INCLUDE (Image);
+
+CREATE TABLE dbo.[Sign Type] (
+    ID int IDENTITY(1, 1) NOT NULL CONSTRAINT PK_Sign_Type PRIMARY KEY,
+    Type nvarchar(450) NOT NULL CONSTRAINT UQ_Sign_Type_Type UNIQUE
+);
+
+INSERT INTO dbo.[Sign Type] (Type)
+SELECT DISTINCT Type_Key FROM dbo.[Signage] WHERE Type_Key IS NOT NULL;
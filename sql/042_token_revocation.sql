@@ -0,0 +1,21 @@
+-- Token revocation (Logout, RevokeUserTokens)
+--
+-- [Revoked Token] holds single tokens revoked by their ID until they would have expired; the function deletes
+-- expired rows as it adds new ones. [User Token Cutoff] revokes every token of a user issued before Not_Before.
+-- Each instance keeps both in memory and reloads them when Revoked_At or Updated_At moves.
+-- Until this is applied nothing is treated as revoked, and Logout and RevokeUserTokens fail.
+
+CREATE TABLE dbo.[Revoked Token] (
+    Token_ID nvarchar(64) NOT NULL CONSTRAINT PK_Revoked_Token PRIMARY KEY,
+    User_ID int NULL,
+    Expires_At datetime2(0) NOT NULL,
+    Revoked_At datetime2 NOT NULL CONSTRAINT DF_Revoked_Token_Revoked_At DEFAULT SYSUTCDATETIME()
+);
+
+CREATE INDEX IX_Revoked_Token_Expires_At ON dbo.[Revoked Token] (Expires_At);
+
+CREATE TABLE dbo.[User Token Cutoff] (
+    User_ID int NOT NULL CONSTRAINT PK_User_Token_Cutoff PRIMARY KEY,
+    Not_Before datetime2(0) NOT NULL,
+    Updated_At datetime2 NOT NULL CONSTRAINT DF_User_Token_Cutoff_Updated_At DEFAULT SYSUTCDATETIME()
+);
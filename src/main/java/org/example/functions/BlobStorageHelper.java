@@ -0,0 +1,226 @@
+package org.example.functions;
+
+import com.azure.core.exception.ServiceResponseException;
+import com.azure.core.util.BinaryData;
+import com.azure.core.util.Context;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobServiceClient;
+import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.models.BlobHttpHeaders;
+import com.azure.storage.blob.models.BlobRequestConditions;
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.models.ParallelTransferOptions;
+import com.azure.storage.blob.options.BlobInputStreamOptions;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
+import com.azure.storage.blob.options.BlockBlobOutputStreamOptions;
+import com.azure.storage.blob.specialized.BlobInputStream;
+import com.azure.storage.blob.specialized.BlockBlobClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+public class BlobStorageHelper {
+    public static final String IMAGES_CONTAINER = "images";
+
+    private static volatile BlobServiceClient blobServiceClient;
+
+    public static BlobContainerClient getContainer(String containerName) {
+        return getServiceClient().getBlobContainerClient(containerName);
+    }
+
+    /**
+     * The client owns the HTTP pipeline and connection pool, so it's built once and shared by every invocation.
+     */
+    public static BlobServiceClient getServiceClient() {
+        if (blobServiceClient == null) {
+            synchronized (BlobStorageHelper.class) {
+                if (blobServiceClient == null) {
+                    String connectStr = System.getenv("ConnectBlobStorage");
+                    blobServiceClient = new BlobServiceClientBuilder()
+                            .connectionString(connectStr)
+                            .buildClient();
+                }
+            }
+        }
+        return blobServiceClient;
+    }
+
+    /**
+     * Checks that a container exists, within the deadline.
+     */
+    public static boolean exists(BlobContainerClient containerClient, Deadline deadline) throws DependencyException {
+        return call(deadline, () -> containerClient.existsWithResponse(deadline.timeout(), Context.NONE).getValue());
+    }
+
+    /**
+     * Uploads a slice of a buffer without copying it, within the deadline.
+     *
+     * @param blobClient Blob to (over)write.
+     * @param buffer Buffer holding the content.
+     * @param offset Start of the content in the buffer.
+     * @param length Length of the content.
+     * @param deadline The request's deadline.
+     */
+    public static void upload(BlobClient blobClient, byte[] buffer, int offset, int length, Deadline deadline)
+            throws DependencyException {
+        call(deadline, () -> {
+            // Wraps the slice; the BinaryData knows its length, so the upload doesn't need it separately.
+            // Without request conditions this overwrites, same as upload(..., true)
+            BinaryData data = BinaryData.fromByteBuffer(ByteBuffer.wrap(buffer, offset, length));
+            return blobClient.uploadWithResponse(new BlobParallelUploadOptions(data), deadline.timeout(), Context.NONE);
+        });
+    }
+
+    /**
+     * Stages one block of a block blob, within the deadline.
+     */
+    public static void stageBlock(BlockBlobClient blob, String blockId, byte[] data, Deadline deadline)
+            throws DependencyException {
+        call(deadline, () -> blob.stageBlockWithResponse(blockId, new ByteArrayInputStream(data), data.length,
+                null, null, deadline.timeout(), Context.NONE));
+    }
+
+    /**
+     * Opens a stream that uploads a block blob a block at a time as it's written, so at most a few blocks are
+     * held in memory. Nothing is visible until the stream is closed, which commits the blob; blocks of a stream
+     * that is never closed are discarded by the service.
+     *
+     * @param containerName Container, created if it doesn't exist.
+     * @param blobName Blob to (over)write.
+     * @param contentType Content type of the blob.
+     * @param blockSize Size of each uploaded block.
+     * @param deadline The caller's deadline.
+     */
+    public static OutputStream openOutputStream(String containerName, String blobName, String contentType,
+                                                long blockSize, Deadline deadline) throws DependencyException {
+        BlobContainerClient container = getContainer(containerName);
+        call(deadline, container::createIfNotExists);
+
+        BlockBlobClient blob = container.getBlobClient(blobName).getBlockBlobClient();
+        BlockBlobOutputStreamOptions options = new BlockBlobOutputStreamOptions()
+                .setHeaders(new BlobHttpHeaders().setContentType(contentType))
+                .setParallelTransferOptions(new ParallelTransferOptions()
+                        .setBlockSizeLong(blockSize)
+                        .setMaxConcurrency(2));
+        return call(deadline, () -> blob.getBlobOutputStream(options));
+    }
+
+    /**
+     * Creates an empty blob, unless it already exists, e.g. to mark something as done. Only one of several
+     * concurrent calls creates it.
+     *
+     * @param containerName Container, created if it doesn't exist.
+     * @param blobName Blob to create.
+     * @param deadline The caller's deadline.
+     * @return Whether the blob was created by this call.
+     */
+    public static boolean createIfNotExists(String containerName, String blobName, Deadline deadline)
+            throws DependencyException {
+        BlobContainerClient container = getContainer(containerName);
+        call(deadline, container::createIfNotExists);
+
+        BlobClient blob = container.getBlobClient(blobName);
+        BlobParallelUploadOptions options = new BlobParallelUploadOptions(BinaryData.fromBytes(new byte[0]))
+                .setRequestConditions(new BlobRequestConditions().setIfNoneMatch("*"));
+        try {
+            call(deadline, () -> blob.uploadWithResponse(options, deadline.timeout(), Context.NONE));
+            return true;
+        } catch (BlobStorageException e) {
+            // 409 BlobAlreadyExists, or 412 if it was being created at the same time
+            if (e.getStatusCode() == 409 || e.getStatusCode() == 412) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a blob for reading one block at a time, so it never has to fit in memory. The content stays the
+     * version that was there when it was opened, whose ETag is in the stream's properties; a read fails with an
+     * IOException if the blob changes meanwhile.
+     *
+     * @param containerName Container of the blob.
+     * @param blobName Blob to read.
+     * @param blockSize Size of each block downloaded.
+     * @param deadline The caller's deadline, for opening the blob. Reads aren't bound to it.
+     * @throws BlobStorageException If the blob doesn't exist (404).
+     */
+    public static BlobInputStream openInputStream(String containerName, String blobName, int blockSize,
+                                              Deadline deadline) throws DependencyException {
+        BlobClient blob = getContainer(containerName).getBlobClient(blobName);
+        BlobInputStreamOptions options = new BlobInputStreamOptions().setBlockSize(blockSize);
+        return call(deadline, () -> blob.openInputStream(options));
+    }
+
+    /**
+     * Runs a Blob Storage call behind the breaker. Server errors, throttling, timeouts and connection failures
+     * count against the breaker and come back as a DependencyException; other service errors (404, 409, ...) are
+     * the caller's to handle and are rethrown as they are. So is any other exception, which is a bug here rather
+     * than the service failing, and isn't counted either way.
+     *
+     * @param deadline The request's deadline. Calls that take a timeout should pass {@link Deadline#timeout()}.
+     * @param call The call.
+     * @return What the call returned.
+     */
+    public static <T> T call(Deadline deadline, Supplier<T> call) throws DependencyException {
+        CircuitBreaker.BLOB.check();
+        deadline.check(CircuitBreaker.BLOB.dependency);
+
+        T result;
+        try {
+            result = call.get();
+        } catch (BlobStorageException e) {
+            int status = e.getStatusCode();
+            if (status < 500 && status != 408 && status != 429) {
+                CircuitBreaker.BLOB.recordSuccess();
+                throw e;
+            }
+            CircuitBreaker.BLOB.recordFailure();
+            throw DependencyException.unavailable(CircuitBreaker.BLOB.dependency, 1, e);
+        } catch (RuntimeException e) {
+            boolean timedOut = isTimeout(e);
+            if (!timedOut && !isTransportFailure(e)) {
+                throw e;
+            }
+            CircuitBreaker.BLOB.recordFailure();
+            if (timedOut || deadline.expired()) {
+                throw DependencyException.timedOut(CircuitBreaker.BLOB.dependency, e);
+            }
+            throw DependencyException.unavailable(CircuitBreaker.BLOB.dependency, 1, e);
+        }
+
+        CircuitBreaker.BLOB.recordSuccess();
+        return result;
+    }
+
+    /**
+     * The SDK reports timeouts in a few different wrappers, depending on the operation.
+     */
+    private static boolean isTimeout(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException
+                    || (cause.getMessage() != null && cause.getMessage().startsWith("Timeout on blocking read"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The request never got a response: the connection was refused, reset or closed early. The SDK surfaces
+     * these as a ServiceResponseException, or as the IOException itself wrapped in an unchecked one.
+     */
+    private static boolean isTransportFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ServiceResponseException || cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
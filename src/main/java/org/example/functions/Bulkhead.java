@@ -0,0 +1,159 @@
+package org.example.functions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for a shared resource. At most "limit" calls run at once, at most "queue" more wait
+ * (for up to "wait" milliseconds), and anything past that is rejected straight away so the caller can answer
+ * 429 instead of piling onto an overloaded database or storage account.
+ *
+ * Limits are per function instance and are read from app settings, e.g. "AdmissionSqlWriteLimit",
+ * "AdmissionSqlWriteQueue" and "AdmissionSqlWriteWaitMs".
+ */
+public class Bulkhead {
+    public static final Bulkhead SQL_READ = new Bulkhead("SqlRead", 16, 32, 2000);
+    public static final Bulkhead SQL_WRITE = new Bulkhead("SqlWrite", 4, 8, 2000);
+    public static final Bulkhead BLOB_UPLOAD = new Bulkhead("BlobUpload", 8, 16, 2000);
+
+    private static final Bulkhead[] ALL = {SQL_READ, SQL_WRITE, BLOB_UPLOAD};
+
+    /**
+     * Thrown when a call isn't admitted.
+     */
+    public static class RejectedException extends Exception {
+        public final int retryAfterSeconds;
+
+        RejectedException(String name, int retryAfterSeconds) {
+            super(name + " is at capacity");
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+
+    /**
+     * Held while the call runs. Closing it (with try-with-resources) lets the next call in.
+     */
+    public class Permit implements AutoCloseable {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+                permits.release();
+            }
+        }
+    }
+
+    private final String name;
+    private final int limit;
+    private final int queueLimit;
+    private final long waitMillis;
+    private final Semaphore permits;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    Bulkhead(String name, int defaultLimit, int defaultQueue, long defaultWaitMillis) {
+        this.name = name;
+        this.limit = Settings.getInt("Admission" + name + "Limit", defaultLimit);
+        this.queueLimit = Settings.getInt("Admission" + name + "Queue", defaultQueue);
+        this.waitMillis = Settings.getInt("Admission" + name + "WaitMs", (int) defaultWaitMillis);
+        this.permits = new Semaphore(limit, true);
+    }
+
+    /**
+     * Waits for a slot if the queue has room.
+     *
+     * @return The permit, to be closed when the call is done.
+     * @throws RejectedException If the queue is full or the wait timed out.
+     */
+    public Permit acquire() throws RejectedException {
+        if (!permits.tryAcquire()) {
+            if (queued.incrementAndGet() > queueLimit) {
+                queued.decrementAndGet();
+                return reject();
+            }
+
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            } finally {
+                queued.decrementAndGet();
+            }
+
+            if (!acquired) {
+                return reject();
+            }
+        }
+
+        inFlight.incrementAndGet();
+        admitted.incrementAndGet();
+        return new Permit();
+    }
+
+    /**
+     * Takes a slot only if one is free right now, for optional work such as a hedged read.
+     *
+     * @return The permit, or null if the bulkhead is busy. Not counted as a rejection.
+     */
+    public Permit tryAcquire() {
+        if (!permits.tryAcquire()) {
+            return null;
+        }
+        inFlight.incrementAndGet();
+        admitted.incrementAndGet();
+        return new Permit();
+    }
+
+    /**
+     * Rejects a call straight away if it wouldn't be admitted, even into the queue, without taking a slot. A call
+     * that passes can still be rejected by {@link #acquire} later.
+     *
+     * @throws RejectedException If the bulkhead and its queue are full.
+     */
+    public void checkRoom() throws RejectedException {
+        if (permits.availablePermits() == 0 && queued.get() >= queueLimit) {
+            reject();
+        }
+    }
+
+    private Permit reject() throws RejectedException {
+        rejected.incrementAndGet();
+        // Roughly how long the current queue takes to drain, and at least a second
+        int retryAfter = (int) Math.max(1, (waitMillis * (queued.get() + 1) / Math.max(1, limit)) / 1000);
+        throw new RejectedException(name, retryAfter);
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("limit", limit);
+        metrics.put("queueLimit", queueLimit);
+        metrics.put("inFlight", inFlight.get());
+        metrics.put("queued", queued.get());
+        metrics.put("admitted", admitted.get());
+        metrics.put("rejected", rejected.get());
+        return metrics;
+    }
+
+    /**
+     * @return Metrics of every bulkhead, keyed by name.
+     */
+    public static Map<String, Object> allMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Bulkhead bulkhead : ALL) {
+            metrics.put(bulkhead.name, bulkhead.metrics());
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,203 @@
+package org.example.functions;
+
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.models.Block;
+import com.azure.storage.blob.models.BlockList;
+import com.azure.storage.blob.models.BlockListType;
+import com.azure.storage.blob.specialized.BlockBlobClient;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Helpers for resumable image uploads. Each chunk is staged as an uncommitted block on the target blob, so the
+ * upload session lives entirely in blob storage and any function instance can accept the next chunk.
+ * Uncommitted blocks are discarded by the storage service after 7 days.
+ */
+public class ChunkedUpload {
+    // Block blobs allow at most 50,000 blocks
+    public static final int MAX_CHUNKS = 50000;
+    private static final int DEFAULT_MAX_CHUNK_BYTES = 4 * 1024 * 1024;
+    // As issued by StartImageUpload
+    private static final Pattern UPLOAD_ID = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}\\.png");
+    private static final Pattern CHUNK_NAME = Pattern.compile("[0-9]{8}");
+
+    /**
+     * Outcome of {@link #commit}.
+     */
+    public static class CommitResult {
+        /** Indexes of the chunks that are still missing. Nothing was committed unless this is empty. */
+        public final List<Integer> missing;
+        /** Whether an earlier attempt had already committed the same chunks, e.g. one whose response was lost. */
+        public final boolean alreadyCommitted;
+        /** Whether the blob was already committed from a different number of chunks. Nothing was committed. */
+        public final boolean conflict;
+
+        CommitResult(List<Integer> missing, boolean alreadyCommitted, boolean conflict) {
+            this.missing = missing;
+            this.alreadyCommitted = alreadyCommitted;
+            this.conflict = conflict;
+        }
+    }
+
+    /**
+     * @return Largest chunk accepted by UploadImageChunk, from the "ImageChunkMaxBytes" setting (4 MiB by default).
+     */
+    public static int maxChunkBytes() {
+        return Settings.getInt("ImageChunkMaxBytes", DEFAULT_MAX_CHUNK_BYTES);
+    }
+
+    /**
+     * Block IDs must all be the same length within a blob, so the index is zero padded before encoding.
+     */
+    public static String blockId(int index) {
+        return Base64.getEncoder().encodeToString(String.format(Locale.ROOT, "%08d", index).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return The chunk index of a block staged by {@link #blockId}, or -1 for a block staged some other way.
+     */
+    public static int chunkIndex(String blockId) {
+        String name;
+        try {
+            name = new String(Base64.getDecoder().decode(blockId), StandardCharsets.US_ASCII);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+        return CHUNK_NAME.matcher(name).matches() ? Integer.parseInt(name) : -1;
+    }
+
+    /**
+     * @return A new upload ID, which is also the name of the blob.
+     */
+    public static String newUploadId() {
+        return UUID.randomUUID().toString() + ".png";
+    }
+
+    /**
+     * Upload IDs double as blob names, so only IDs issued by {@link #newUploadId} are accepted; anything else
+     * could stage blocks onto, or commit over, an existing image.
+     */
+    public static boolean isValidUploadId(String uploadId) {
+        return uploadId != null && UPLOAD_ID.matcher(uploadId).matches();
+    }
+
+    /**
+     * @param blob The blob being uploaded.
+     * @param type Which blocks to list.
+     * @return Indexes of the chunks in the block list, in ascending order.
+     */
+    public static TreeSet<Integer> listChunks(BlockBlobClient blob, BlockListType type) {
+        BlockList blockList = listBlocks(blob, type);
+        TreeSet<Integer> chunks = new TreeSet<>();
+        if (blockList == null) {
+            return chunks;
+        }
+        if (type != BlockListType.UNCOMMITTED) {
+            chunks.addAll(chunkIndexes(blockList.getCommittedBlocks()));
+        }
+        if (type != BlockListType.COMMITTED) {
+            chunks.addAll(chunkIndexes(blockList.getUncommittedBlocks()));
+        }
+        return chunks;
+    }
+
+    /**
+     * @return The block list, or null if nothing has been staged yet.
+     */
+    private static BlockList listBlocks(BlockBlobClient blob, BlockListType type) {
+        try {
+            return blob.listBlocks(type);
+        } catch (BlobStorageException e) {
+            if (e.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private static TreeSet<Integer> chunkIndexes(List<Block> blocks) {
+        TreeSet<Integer> chunks = new TreeSet<>();
+        if (blocks != null) {
+            for (Block block : blocks) {
+                int index = chunkIndex(block.getName());
+                if (index >= 0) {
+                    chunks.add(index);
+                }
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * @return Whether the chunks are exactly 0 to chunkCount - 1.
+     */
+    static boolean isComplete(TreeSet<Integer> chunks, int chunkCount) {
+        return chunks.size() == chunkCount && chunks.first() == 0 && chunks.last() == chunkCount - 1;
+    }
+
+    /**
+     * @return The first chunk index that hasn't been staged, which is where an interrupted upload resumes.
+     */
+    public static int nextMissingChunk(TreeSet<Integer> staged) {
+        int next = 0;
+        while (staged.contains(next)) {
+            next++;
+        }
+        return next;
+    }
+
+    /**
+     * Commits chunks 0 to chunkCount - 1 as the content of the blob, unless the blob already exists. Committing
+     * again once the same chunks are committed succeeds without changing anything, so a commit can be retried.
+     *
+     * @return The chunks still missing, whether they were already committed, or whether other chunks were.
+     * @throws BlobStorageException With status 409 if the blob was created some other way meanwhile.
+     */
+    public static CommitResult commit(BlockBlobClient blob, int chunkCount) {
+        BlockList blockList = listBlocks(blob, BlockListType.ALL);
+        // Committing discards the uncommitted blocks, so once anything is committed the upload is over
+        if (blockList != null && blockList.getCommittedBlocks() != null && !blockList.getCommittedBlocks().isEmpty()) {
+            boolean same = blockList.getCommittedBlocks().size() == chunkCount
+                    && isComplete(chunkIndexes(blockList.getCommittedBlocks()), chunkCount);
+            return new CommitResult(Collections.emptyList(), same, !same);
+        }
+        TreeSet<Integer> staged = blockList != null
+                ? chunkIndexes(blockList.getUncommittedBlocks()) : new TreeSet<>();
+
+        List<Integer> missing = new ArrayList<>();
+        List<String> blockIds = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            if (!staged.contains(i)) {
+                missing.add(i);
+            }
+            blockIds.add(blockId(i));
+        }
+        if (!missing.isEmpty()) {
+            return new CommitResult(missing, false, false);
+        }
+
+        try {
+            // If-None-Match: *, so an existing blob is never replaced
+            blob.commitBlockList(blockIds, false);
+        } catch (BlobStorageException e) {
+            // A concurrent attempt committed first, from the same chunks or not
+            if (e.getStatusCode() == 409) {
+                TreeSet<Integer> committed = listChunks(blob, BlockListType.COMMITTED);
+                if (!committed.isEmpty()) {
+                    boolean same = isComplete(committed, chunkCount);
+                    return new CommitResult(missing, same, !same);
+                }
+            }
+            throw e;
+        }
+        return new CommitResult(missing, false, false);
+    }
+}
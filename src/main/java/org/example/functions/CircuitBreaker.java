@@ -0,0 +1,145 @@
+package org.example.functions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stops calling a dependency that is failing, so requests get an immediate SERVICE_UNAVAILABLE instead of each
+ * waiting out its own timeout against it.
+ *
+ * The breaker opens when at least half of the calls in the last window failed (and there were enough calls to
+ * tell). While open every call is refused. After the open period one trial call is let through: if it works the
+ * breaker closes, if not it stays open for another period.
+ *
+ * Settings are per breaker, e.g. "BreakerSqlMinCalls", "BreakerSqlWindowMs" and "BreakerSqlOpenMs".
+ */
+public class CircuitBreaker {
+    public static final CircuitBreaker SQL = new CircuitBreaker("Sql", "SQL Database", 10, 10000, 15000);
+    public static final CircuitBreaker SQL_REPLICA = new CircuitBreaker("SqlReplica", "SQL read replica", 10, 10000, 15000);
+    public static final CircuitBreaker BLOB = new CircuitBreaker("Blob", "Blob Storage", 10, 10000, 15000);
+    public static final CircuitBreaker KEY_VAULT = new CircuitBreaker("KeyVault", "Key Vault", 3, 60000, 30000);
+
+    private static final CircuitBreaker[] ALL = {SQL, SQL_REPLICA, BLOB, KEY_VAULT};
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    // Name shown to clients
+    public final String dependency;
+    private final int minCalls;
+    private final long windowMillis;
+    private final long openMillis;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private long windowStart = System.currentTimeMillis();
+    private int calls;
+    private int failures;
+    private long openedAt;
+    private long trialStartedAt;
+    private long timesOpened;
+    private long refused;
+
+    CircuitBreaker(String name, String dependency, int defaultMinCalls, long defaultWindowMillis, long defaultOpenMillis) {
+        this.name = name;
+        this.dependency = dependency;
+        this.minCalls = Settings.getInt("Breaker" + name + "MinCalls", defaultMinCalls);
+        this.windowMillis = Settings.getInt("Breaker" + name + "WindowMs", (int) defaultWindowMillis);
+        this.openMillis = Settings.getInt("Breaker" + name + "OpenMs", (int) defaultOpenMillis);
+    }
+
+    /**
+     * Called before every call to the dependency.
+     *
+     * @throws DependencyException If the breaker is open.
+     */
+    public synchronized void check() throws DependencyException {
+        long now = System.currentTimeMillis();
+        if (state == State.OPEN) {
+            if (now - openedAt < openMillis) {
+                refused++;
+                throw DependencyException.unavailable(dependency, retryAfterSeconds(now), null);
+            }
+            state = State.HALF_OPEN;
+            trialStartedAt = 0;
+        }
+
+        if (state == State.HALF_OPEN) {
+            // One trial call at a time. A trial that never reported back doesn't block the next one for long.
+            if (trialStartedAt != 0 && now - trialStartedAt < openMillis) {
+                refused++;
+                throw DependencyException.unavailable(dependency, 1, null);
+            }
+            trialStartedAt = now;
+            return;
+        }
+
+        if (now - windowStart >= windowMillis) {
+            windowStart = now;
+            calls = 0;
+            failures = 0;
+        }
+        calls++;
+    }
+
+    /**
+     * Reports that the dependency answered. Errors that are the caller's fault (bad input, missing rows)
+     * count as answers too.
+     */
+    public synchronized void recordSuccess() {
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            windowStart = System.currentTimeMillis();
+            calls = 0;
+            failures = 0;
+        }
+    }
+
+    /**
+     * Reports that the dependency failed, timed out, or couldn't be reached.
+     */
+    public synchronized void recordFailure() {
+        long now = System.currentTimeMillis();
+        if (state == State.HALF_OPEN) {
+            open(now);
+            return;
+        }
+        if (state == State.CLOSED) {
+            failures++;
+            if (calls >= minCalls && failures * 2 >= calls) {
+                open(now);
+            }
+        }
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+        timesOpened++;
+    }
+
+    private int retryAfterSeconds(long now) {
+        return (int) Math.max(1, (openMillis - (now - openedAt) + 999) / 1000);
+    }
+
+    public synchronized Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("state", state.name());
+        metrics.put("calls", calls);
+        metrics.put("failures", failures);
+        metrics.put("timesOpened", timesOpened);
+        metrics.put("refused", refused);
+        return metrics;
+    }
+
+    /**
+     * @return Metrics of every breaker, keyed by name.
+     */
+    public static Map<String, Object> allMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (CircuitBreaker breaker : ALL) {
+            metrics.put(breaker.name, breaker.metrics());
+        }
+        return metrics;
+    }
+}
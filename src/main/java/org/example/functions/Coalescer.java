@@ -0,0 +1,199 @@
+package org.example.functions;
+
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.HttpStatusType;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-flight reads: identical requests that arrive while one is already being answered wait for that answer
+ * and get the same response bytes, instead of each running the same query. A crowd of clients asking for the
+ * same thing at once then costs one query and one serialization.
+ *
+ * Requests are identical when they have the same normalized parameters and negotiate the same response format
+ * and encoding. Successful responses can also be reused for a short grace period after they're sent,
+ * "Coalesce&lt;Name&gt;GraceMs" or "CoalesceGraceMs" for all (default 0, off), to absorb stragglers. Only use it
+ * for responses that don't depend on who's asking.
+ */
+public class Coalescer {
+    // Before the instances, which read it
+    private static final int DEFAULT_GRACE_MILLIS = Settings.getInt("CoalesceGraceMs", 0);
+
+    public static final Coalescer SIGN_TYPES = new Coalescer("GetAllSignTypes");
+    public static final Coalescer SRI = new Coalescer("GetSRI");
+    public static final Coalescer MAINTENANCE_CREW = new Coalescer("GetMaintenanceCrew");
+    public static final Coalescer IMAGES_OF_TYPE = new Coalescer("GetAllImagesOfType");
+
+    private static final Coalescer[] ALL = {SIGN_TYPES, SRI, MAINTENANCE_CREW, IMAGES_OF_TYPE};
+
+    // Every header the endpoints set, copied to the responses of the requests that waited
+    private static final String[] HEADERS = {"Content-Type", "Content-Encoding", "Vary", "Retry-After"};
+
+    /**
+     * Answers the request, the normal way.
+     */
+    public interface Leader {
+        HttpResponseMessage run();
+    }
+
+    /**
+     * A response, detached from the request it was built for.
+     */
+    private static class Shared {
+        final HttpStatusType status;
+        final String[] headers = new String[HEADERS.length];
+        final Object body;
+        final long sentAt = System.currentTimeMillis();
+
+        Shared(HttpResponseMessage response) {
+            this.status = response.getStatus();
+            for (int i = 0; i < HEADERS.length; i++) {
+                headers[i] = response.getHeader(HEADERS[i]);
+            }
+            this.body = response.getBody();
+        }
+
+        HttpResponseMessage toResponse(HttpRequestMessage<?> request) {
+            HttpResponseMessage.Builder builder = request.createResponseBuilder(status);
+            for (int i = 0; i < HEADERS.length; i++) {
+                if (headers[i] != null) {
+                    builder.header(HEADERS[i], headers[i]);
+                }
+            }
+            return builder.body(body).build();
+        }
+    }
+
+    private final String name;
+    private final long graceMillis;
+    // Completed with null if the leader threw
+    private final Map<String, CompletableFuture<Shared>> flights = new ConcurrentHashMap<>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong led = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong graceHits = new AtomicLong();
+
+    Coalescer(String name) {
+        this(name, Settings.getInt("Coalesce" + name + "GraceMs", DEFAULT_GRACE_MILLIS));
+    }
+
+    Coalescer(String name, long graceMillis) {
+        this.name = name;
+        this.graceMillis = graceMillis;
+    }
+
+    /**
+     * Answers the request with the response of an identical request in flight, or of one answered within the
+     * grace period. Otherwise answers it with the leader and shares that response with the identical requests
+     * that arrive meanwhile.
+     *
+     * @param request Request being answered, used for Accept and Accept-Encoding.
+     * @param params The parameters the response depends on, normalized, e.g. "type=Stop".
+     * @param deadline How long to wait for a response in flight.
+     * @param leader Answers the request if nothing can be shared.
+     * @return The response.
+     * @throws DependencyException If the response in flight didn't come in time.
+     */
+    public HttpResponseMessage call(HttpRequestMessage<?> request, String params, Deadline deadline, Leader leader)
+            throws DependencyException {
+        calls.incrementAndGet();
+        String key = params + '|' + ResponseHelper.negotiateFormat(request.getHeaders().get("accept"))
+                + '|' + ResponseHelper.negotiateEncoding(request.getHeaders().get("accept-encoding"));
+
+        CompletableFuture<Shared> flight = new CompletableFuture<>();
+        CompletableFuture<Shared> current;
+        while ((current = flights.putIfAbsent(key, flight)) != null) {
+            Shared done = current.getNow(null);
+            if (!current.isDone()) {
+                joined.incrementAndGet();
+                Shared shared = await(current, deadline);
+                // The leader failed: answer this one on its own rather than fail it too
+                return shared != null ? shared.toResponse(request) : leader.run();
+            }
+            if (done != null && System.currentTimeMillis() - done.sentAt < graceMillis) {
+                graceHits.incrementAndGet();
+                return done.toResponse(request);
+            }
+            flights.remove(key, current);
+        }
+
+        led.incrementAndGet();
+        HttpResponseMessage response;
+        try {
+            response = leader.run();
+        } catch (RuntimeException | Error e) {
+            flights.remove(key, flight);
+            flight.complete(null);
+            throw e;
+        }
+
+        Shared shared = new Shared(response);
+        // Errors are never reused, and without a grace period nothing is once it's sent
+        if (graceMillis <= 0 || shared.status.value() != HttpStatus.OK.value()) {
+            flights.remove(key, flight);
+        } else {
+            removeExpired(shared.sentAt);
+        }
+        flight.complete(shared);
+        return response;
+    }
+
+    private Shared await(CompletableFuture<Shared> flight, Deadline deadline) throws DependencyException {
+        try {
+            return flight.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw DependencyException.timedOut(name, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw DependencyException.timedOut(name, e);
+        } catch (ExecutionException e) {
+            // Never completed exceptionally
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Drops responses whose grace period is over, so keys that aren't asked for again don't stay around.
+     */
+    private void removeExpired(long now) {
+        flights.values().removeIf(flight -> {
+            Shared done = flight.getNow(null);
+            return flight.isDone() && (done == null || now - done.sentAt >= graceMillis);
+        });
+    }
+
+    public Map<String, Object> metrics() {
+        long total = calls.get();
+        long shared = joined.get() + graceHits.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("calls", total);
+        metrics.put("led", led.get());
+        metrics.put("joined", joined.get());
+        metrics.put("graceHits", graceHits.get());
+        metrics.put("hitRate", total > 0 ? (double) shared / total : 0.0);
+        metrics.put("graceMs", graceMillis);
+        metrics.put("held", flights.size());
+        return metrics;
+    }
+
+    /**
+     * @return Metrics of every coalesced read, keyed by name.
+     */
+    public static Map<String, Object> allMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Coalescer coalescer : ALL) {
+            metrics.put(coalescer.name, coalescer.metrics());
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,146 @@
+package org.example.functions;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RFC 4180 CSV, read and written one record at a time: fields separated by commas, records by CRLF or LF, and
+ * fields with a comma, quote or line break quoted, with quotes doubled.
+ */
+public class Csv {
+
+    /**
+     * Reads records from a stream without holding more than the current record.
+     */
+    public static class Reader {
+        private final java.io.Reader in;
+        private int line = 1;
+        private int recordLine;
+        private int peeked = -2;
+
+        /**
+         * @param in Stream to read, which should be buffered.
+         */
+        public Reader(java.io.Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * @return The fields of the next record, or null at the end of the stream. Blank lines are skipped.
+         * @throws IOException If the stream fails, or a quoted field isn't closed.
+         */
+        public List<String> next() throws IOException {
+            int c = read();
+            while (c == '\r' || c == '\n') {
+                skipLineBreak(c);
+                c = read();
+            }
+            if (c == -1) {
+                return null;
+            }
+            recordLine = line;
+
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unclosed quote in record starting on line " + recordLine);
+                    }
+                    if (c == '"') {
+                        c = read();
+                        if (c != '"') {
+                            quoted = false;
+                            continue;
+                        }
+                    } else if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    fields.add(field.toString());
+                    if (c != -1) {
+                        skipLineBreak(c);
+                    }
+                    return fields;
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        /**
+         * @return Line the last record returned by {@link #next()} started on, counting from 1.
+         */
+        public int line() {
+            return recordLine;
+        }
+
+        private void skipLineBreak(int c) throws IOException {
+            line++;
+            if (c == '\r') {
+                int after = read();
+                if (after != '\n') {
+                    peeked = after;
+                }
+            }
+        }
+
+        private int read() throws IOException {
+            if (peeked != -2) {
+                int c = peeked;
+                peeked = -2;
+                return c;
+            }
+            return in.read();
+        }
+    }
+
+    /**
+     * Writes one record, ending with CRLF. Null fields are written empty.
+     */
+    public static void writeRecord(Writer writer, Object... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (fields[i] != null) {
+                writeField(writer, fields[i].toString());
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Writes one field, quoted if it needs to be.
+     */
+    public static void writeField(Writer writer, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,112 @@
+package org.example.functions;
+
+import com.microsoft.azure.functions.HttpRequestMessage;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The time left to answer a request. Every remote call made for the request gets at most what's left, so a slow
+ * dependency costs the client one budget instead of stacking up each SDK's own default timeout.
+ *
+ * Budgets are read from the app settings "ReadBudgetMs" (default 10 s) and "WriteBudgetMs" (default 60 s, uploads
+ * included). A client can ask for less with an "x-request-budget-ms" header, but not for more.
+ */
+public class Deadline {
+    private static final int READ_BUDGET_MILLIS = Settings.getInt("ReadBudgetMs", 10000);
+    private static final int WRITE_BUDGET_MILLIS = Settings.getInt("WriteBudgetMs", 60000);
+
+    // Runs calls that have no timeout of their own, and hedged attempts. Callers are already limited by a Bulkhead.
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "deadline-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long expiresAt;
+
+    private Deadline(long budgetMillis) {
+        this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    public static Deadline forRead(HttpRequestMessage<?> request) {
+        return forRequest(request, READ_BUDGET_MILLIS);
+    }
+
+    public static Deadline forWrite(HttpRequestMessage<?> request) {
+        return forRequest(request, WRITE_BUDGET_MILLIS);
+    }
+
+    public static Deadline after(long millis) {
+        return new Deadline(millis);
+    }
+
+    private static Deadline forRequest(HttpRequestMessage<?> request, long budgetMillis) {
+        String requested = request.getHeaders().get("x-request-budget-ms");
+        if (requested != null) {
+            try {
+                budgetMillis = Math.min(budgetMillis, Math.max(Long.parseLong(requested.trim()), 1));
+            } catch (NumberFormatException e) {
+                // Ignored, the server's budget applies
+            }
+        }
+        return new Deadline(budgetMillis);
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime()));
+    }
+
+    public boolean expired() {
+        return remainingMillis() == 0;
+    }
+
+    /**
+     * @return What's left of the budget, for client libraries that take a timeout.
+     */
+    public Duration timeout() {
+        return Duration.ofMillis(Math.max(1, remainingMillis()));
+    }
+
+    /**
+     * Fails fast if there's no time left, rather than starting a call that can't finish.
+     *
+     * @param dependency Name of the dependency about to be called.
+     */
+    public void check(String dependency) throws DependencyException {
+        if (expired()) {
+            throw DependencyException.timedOut(dependency, null);
+        }
+    }
+
+    /**
+     * Runs a call on a worker thread, so the caller can stop waiting for it.
+     */
+    public static <T> Future<T> submit(Callable<T> call) {
+        return WORKERS.submit(call);
+    }
+
+    /**
+     * Waits for a call started with {@link #submit}, at most until the deadline. The call itself keeps running
+     * if it's still going; only the caller is released.
+     *
+     * @param dependency Name of the dependency being called.
+     * @throws ExecutionException If the call failed.
+     */
+    public <T> T await(Future<T> future, String dependency) throws DependencyException, ExecutionException {
+        try {
+            return future.get(remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw DependencyException.timedOut(dependency, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw DependencyException.timedOut(dependency, e);
+        }
+    }
+}
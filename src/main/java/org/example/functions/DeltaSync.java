@@ -0,0 +1,358 @@
+package org.example.functions;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * "Changes since watermark" reads for the tables offline clients keep a copy of.
+ *
+ * Each table is synced in one of three modes, picked when a client starts from scratch:
+ * - "ct": SQL Server change tracking is enabled on the table (see sql/030_delta_sync.sql). The first sync pages
+ *   through the whole table, then later syncs read CHANGETABLE, which also reports deleted rows.
+ * - "timestamp": rows inserted or updated after the watermark's Last_Update_Date. Deletes aren't reported.
+ *   Rows without a Last_Update_Date are synced by ID instead, ahead of the rest: inserts show up, but updates
+ *   that leave it NULL don't.
+ * - "id": rows with an ID above the watermark, for tables that are insert-only and have no Last_Update_Date.
+ *
+ * Watermarks are opaque to clients: they're handed out with every page and sent back as-is. Each names its table
+ * and mode, and is only accepted for that table while the table is still synced in that mode.
+ */
+public class DeltaSync {
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    public static final int MAX_PAGE_SIZE = 5000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static class Table {
+        public final String name;
+        public final String[] columns;
+        public final String timestampColumn;
+
+        Table(String name, String[] columns, String timestampColumn) {
+            this.name = name;
+            this.columns = columns;
+            this.timestampColumn = timestampColumn;
+        }
+    }
+
+    private static final Map<String, Table> TABLES = new HashMap<>();
+
+    static {
+        TABLES.put("sri", new Table("SLD SRI Master", new String[] {
+                "ID", "SRI", "Start_Milepost", "End_Milepost", "Direction", "Name", "Parent_SRI",
+                "Parent_Start_Milepost", "Parent_End_Milepost", "Last_Update_Date"
+        }, "Last_Update_Date"));
+        TABLES.put("crew", new Table("SLD Maintenance Crew", new String[] {
+                "ID", "SRI", "Start_Milepost", "End_Milepost", "Crew_Type", "Crew_Id", "Last_Update_Date"
+        }, "Last_Update_Date"));
+        TABLES.put("signage", new Table("Signage", new String[] {
+                "ID", "Street", "Milepost", "Latitude", "Longitude", "Location", "Posts", "Type", "Height",
+                "Illuminated", "Walkway", "Ground_Treatment", "Inventory_Date", "Inventory_Time", "Condition",
+                "Defect", "Weather_Condition", "Vehicle_Speed", "Road_Type", "Image_Type", "Created_By", "Image"
+        }, null));
+    }
+
+    /**
+     * Thrown when a watermark can't be used anymore (change tracking cleaned up past it, or was turned off),
+     * and the client has to sync from scratch.
+     */
+    public static class ExpiredWatermarkException extends Exception {
+        public ExpiredWatermarkException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Decoded watermark. Only the fields for its mode are set.
+     */
+    static class Watermark {
+        String table;
+        String mode;
+        boolean snapshot;
+        long version;
+        String timestamp;
+        int lastId;
+        // Timestamp mode: highest ID synced of the rows without a timestamp
+        int lastNullId;
+
+        String encode() {
+            ObjectNode node = MAPPER.createObjectNode();
+            node.put("tb", table);
+            node.put("m", mode);
+            if (snapshot) {
+                node.put("s", true);
+            }
+            if ("ct".equals(mode)) {
+                node.put("v", version);
+            }
+            if (timestamp != null) {
+                node.put("t", timestamp);
+            }
+            if ("timestamp".equals(mode)) {
+                node.put("n", lastNullId);
+            }
+            node.put("i", lastId);
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(node.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Watermark decode(String token) {
+            try {
+                JsonNode node = MAPPER.readTree(Base64.getUrlDecoder().decode(token));
+                Watermark watermark = new Watermark();
+                watermark.table = node.get("tb").asText();
+                watermark.mode = node.get("m").asText();
+                watermark.snapshot = node.path("s").asBoolean(false);
+                watermark.version = node.path("v").asLong(0);
+                watermark.timestamp = node.hasNonNull("t") ? node.get("t").asText() : null;
+                watermark.lastId = node.path("i").asInt(0);
+                watermark.lastNullId = node.path("n").asInt(0);
+                if (watermark.timestamp != null) {
+                    LocalDateTime.parse(watermark.timestamp);
+                }
+                return watermark;
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Invalid watermark.");
+            }
+        }
+    }
+
+    /**
+     * @return The table synced under the given client-facing name, or null if there isn't one.
+     */
+    public static Table getTable(String name) {
+        return name == null ? null : TABLES.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Reads one page of changes.
+     *
+     * @param conn Open connection to the database.
+     * @param table Table to read.
+     * @param token Watermark from the previous page, or null to start from scratch.
+     * @param pageSize Maximum number of changed rows to return.
+     * @return "rows", "deleted" (IDs), "watermark" for the next call, "hasMore" and "mode".
+     * @throws IllegalArgumentException If the watermark is invalid.
+     * @throws ExpiredWatermarkException If the client has to start from scratch.
+     */
+    public static Map<String, Object> readChanges(Connection conn, Table table, String token, int pageSize)
+            throws SQLException, ExpiredWatermarkException {
+        Long minValidVersion = getMinValidVersion(conn, table);
+        String untrackedMode = table.timestampColumn != null ? "timestamp" : "id";
+        String mode = minValidVersion != null ? "ct" : untrackedMode;
+
+        Watermark watermark;
+        if (token == null || token.isEmpty()) {
+            watermark = new Watermark();
+            watermark.table = table.name;
+            watermark.mode = mode;
+            if ("ct".equals(mode)) {
+                watermark.snapshot = true;
+                watermark.version = getCurrentVersion(conn);
+            }
+        } else {
+            watermark = Watermark.decode(token);
+            // Issued for another table, or in a mode this table is never synced in
+            if (!table.name.equals(watermark.table)
+                    || !("ct".equals(watermark.mode) || untrackedMode.equals(watermark.mode))) {
+                throw new IllegalArgumentException("Invalid watermark.");
+            }
+            if (!mode.equals(watermark.mode)) {
+                throw new ExpiredWatermarkException("ct".equals(mode)
+                        ? "Change tracking has been enabled for this table."
+                        : "Change tracking is no longer enabled for this table.");
+            }
+            if ("ct".equals(mode) && watermark.version < minValidVersion) {
+                throw new ExpiredWatermarkException("Watermark is older than the change tracking retention period.");
+            }
+        }
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        List<Integer> deleted = new ArrayList<>();
+        boolean hasMore;
+
+        if ("ct".equals(watermark.mode) && !watermark.snapshot) {
+            hasMore = readTrackedChanges(conn, table, watermark, pageSize, rows, deleted);
+        } else if ("timestamp".equals(watermark.mode)) {
+            hasMore = readByTimestamp(conn, table, watermark, pageSize, rows);
+        } else {
+            hasMore = readById(conn, table, watermark, pageSize, rows);
+            if (!hasMore && watermark.snapshot) {
+                // Snapshot done, so continue from the version it was started at
+                watermark.snapshot = false;
+                watermark.lastId = 0;
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("mode", watermark.mode);
+        result.put("rows", rows);
+        result.put("deleted", deleted);
+        result.put("watermark", watermark.encode());
+        result.put("hasMore", hasMore);
+        return result;
+    }
+
+    private static boolean readById(Connection conn, Table table, Watermark watermark, int pageSize,
+                                    List<Map<String, Object>> rows) throws SQLException {
+        String sql = "SELECT TOP (?) " + columnList(table, "t") + " FROM [dbo].[" + table.name + "] t " +
+                "WHERE t.ID > ? ORDER BY t.ID";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, pageSize + 1);
+            stmt.setInt(2, watermark.lastId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (rows.size() == pageSize) {
+                        return true;
+                    }
+                    Map<String, Object> row = readRow(rs, table);
+                    rows.add(row);
+                    watermark.lastId = rs.getInt("ID");
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rows without a timestamp sort first (NULLs come first in SQL Server) and are paged by ID, then the rest by
+     * timestamp and ID.
+     */
+    private static boolean readByTimestamp(Connection conn, Table table, Watermark watermark, int pageSize,
+                                           List<Map<String, Object>> rows) throws SQLException {
+        String ts = "t." + table.timestampColumn;
+        String where = "(" + ts + " IS NULL AND t.ID > ?) OR " + (watermark.timestamp == null
+                ? ts + " IS NOT NULL"
+                : ts + " > ? OR (" + ts + " = ? AND t.ID > ?)");
+        String sql = "SELECT TOP (?) " + columnList(table, "t") + " FROM [dbo].[" + table.name + "] t " +
+                "WHERE " + where + " ORDER BY " + ts + ", t.ID";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, pageSize + 1);
+            stmt.setInt(2, watermark.lastNullId);
+            if (watermark.timestamp != null) {
+                Timestamp since = Timestamp.valueOf(LocalDateTime.parse(watermark.timestamp));
+                stmt.setTimestamp(3, since);
+                stmt.setTimestamp(4, since);
+                stmt.setInt(5, watermark.lastId);
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (rows.size() == pageSize) {
+                        return true;
+                    }
+                    rows.add(readRow(rs, table));
+                    Timestamp updated = rs.getTimestamp(table.timestampColumn);
+                    if (updated == null) {
+                        watermark.lastNullId = rs.getInt("ID");
+                    } else {
+                        watermark.timestamp = updated.toLocalDateTime().toString();
+                        watermark.lastId = rs.getInt("ID");
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean readTrackedChanges(Connection conn, Table table, Watermark watermark, int pageSize,
+                                              List<Map<String, Object>> rows, List<Integer> deleted) throws SQLException {
+        // CHANGETABLE returns changes after the version passed in. Part way through a version, start one
+        // version back so the rest of it is included.
+        long baseVersion = watermark.lastId > 0 ? watermark.version - 1 : watermark.version;
+
+        String sql = "SELECT TOP (?) CT.SYS_CHANGE_VERSION, CT.SYS_CHANGE_OPERATION, CT.ID AS CT_ID, " +
+                columnList(table, "t") + " " +
+                "FROM CHANGETABLE(CHANGES [dbo].[" + table.name + "], ?) AS CT " +
+                "LEFT JOIN [dbo].[" + table.name + "] t ON t.ID = CT.ID " +
+                "WHERE CT.SYS_CHANGE_VERSION > ? OR (CT.SYS_CHANGE_VERSION = ? AND CT.ID > ?) " +
+                "ORDER BY CT.SYS_CHANGE_VERSION, CT.ID";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, pageSize + 1);
+            stmt.setLong(2, baseVersion);
+            stmt.setLong(3, watermark.version);
+            stmt.setLong(4, watermark.version);
+            stmt.setInt(5, watermark.lastId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (rows.size() + deleted.size() == pageSize) {
+                        return true;
+                    }
+
+                    int id = rs.getInt("CT_ID");
+                    if ("D".equals(rs.getString("SYS_CHANGE_OPERATION")) || rs.getObject("ID") == null) {
+                        deleted.add(id);
+                    } else {
+                        rows.add(readRow(rs, table));
+                    }
+                    watermark.version = rs.getLong("SYS_CHANGE_VERSION");
+                    watermark.lastId = id;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Long getMinValidVersion(Connection conn, Table table) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT CHANGE_TRACKING_MIN_VALID_VERSION(OBJECT_ID(?))")) {
+            stmt.setString(1, "[dbo].[" + table.name + "]");
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    long version = rs.getLong(1);
+                    return rs.wasNull() ? null : version;
+                }
+                return null;
+            }
+        }
+    }
+
+    private static long getCurrentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT CHANGE_TRACKING_CURRENT_VERSION()")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static Map<String, Object> readRow(ResultSet rs, Table table) throws SQLException {
+        Map<String, Object> row = new HashMap<>();
+        for (String col : table.columns) {
+            row.put(col, rs.getObject(col));
+        }
+        return row;
+    }
+
+    private static String columnList(Table table, String alias) {
+        StringBuilder sb = new StringBuilder();
+        for (String col : table.columns) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(alias).append('.').append(col);
+        }
+        return sb.toString();
+    }
+}
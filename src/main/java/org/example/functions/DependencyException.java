@@ -0,0 +1,36 @@
+package org.example.functions;
+
+/**
+ * Thrown when SQL, Blob Storage or Key Vault couldn't answer in time, or its circuit breaker is open.
+ * Endpoints answer GATEWAY_TIMEOUT for the former and SERVICE_UNAVAILABLE for the latter, instead of a generic 500.
+ */
+public class DependencyException extends Exception {
+    public final String dependency;
+    public final boolean timedOut;
+    public final int retryAfterSeconds;
+
+    private DependencyException(String dependency, String message, boolean timedOut, int retryAfterSeconds, Throwable cause) {
+        super(message, cause);
+        this.dependency = dependency;
+        this.timedOut = timedOut;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @param dependency Name of the dependency, as shown to the client.
+     * @param cause The timeout reported by the client library, if any.
+     */
+    public static DependencyException timedOut(String dependency, Throwable cause) {
+        return new DependencyException(dependency, dependency + " didn't respond within the request's time budget",
+                true, 1, cause);
+    }
+
+    /**
+     * @param dependency Name of the dependency, as shown to the client.
+     * @param retryAfterSeconds When the client should try again.
+     * @param cause The failure reported by the client library, if any.
+     */
+    public static DependencyException unavailable(String dependency, int retryAfterSeconds, Throwable cause) {
+        return new DependencyException(dependency, dependency + " is unavailable", false, retryAfterSeconds, cause);
+    }
+}
@@ -0,0 +1,187 @@
+package org.example.functions;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedged reads: when an idempotent read takes longer than most of its recent runs, the same read is sent a
+ * second time and whichever answers first wins. One slow connection or query plan then costs roughly the
+ * percentile delay instead of the full wait.
+ *
+ * The hedge delay is the "HedgePercentile" (default 95th) of the last runs of the same read. A hedge is only
+ * sent if the Bulkhead has a free slot, so hedging backs off by itself when the database is busy.
+ */
+public class Hedge {
+    public static final Hedge IMAGE_LISTING = new Hedge("ImageListing");
+    public static final Hedge SIGNAGE_LOOKUP = new Hedge("SignageLookup");
+
+    private static final Hedge[] ALL = {IMAGE_LISTING, SIGNAGE_LOOKUP};
+
+    private static final int PERCENTILE = Settings.getInt("HedgePercentile", 95);
+    private static final int SAMPLE_COUNT = 256;
+    // Too few samples say nothing about the tail
+    private static final int MIN_SAMPLES = 20;
+    private static final long MIN_DELAY_MILLIS = 10;
+
+    /**
+     * One run of the read. Called up to twice, possibly at the same time, on worker threads.
+     */
+    public interface Attempt<T> {
+        T run() throws SQLException, DependencyException;
+    }
+
+    private final String name;
+
+    // Ring buffer of recent latencies, guarded by this
+    private final long[] samples = new long[SAMPLE_COUNT];
+    private int sampleCount;
+    private int nextSample;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    Hedge(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Runs a read, hedging it if it's slow.
+     *
+     * @param bulkhead Admission control for the dependency. The first attempt waits for a slot like any other call.
+     * @param deadline When to give up on both attempts.
+     * @param attempt The read.
+     * @return The result of whichever attempt succeeded first.
+     * @throws SQLException If the attempts failed. The first failure is reported.
+     */
+    public <T> T call(Bulkhead bulkhead, Deadline deadline, Attempt<T> attempt)
+            throws SQLException, DependencyException, Bulkhead.RejectedException {
+        calls.incrementAndGet();
+        long delay = hedgeDelayMillis();
+
+        CompletionService<T> completion = new ExecutorCompletionService<>(task -> Deadline.submit(Executors.callable(task)));
+        Future<T> primary = completion.submit(timed(bulkhead.acquire(), attempt));
+        int running = 1;
+        boolean hedgeSent = false;
+        long start = System.nanoTime();
+        Throwable failure = null;
+
+        while (running > 0) {
+            long wait = deadline.remainingMillis();
+            if (!hedgeSent && delay >= 0) {
+                wait = Math.min(wait, Math.max(0, delay - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            }
+
+            Future<T> done;
+            try {
+                done = completion.poll(wait, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw DependencyException.timedOut(CircuitBreaker.SQL.dependency, e);
+            }
+
+            if (done == null) {
+                deadline.check(CircuitBreaker.SQL.dependency);
+                hedgeSent = true;
+                Bulkhead.Permit permit = bulkhead.tryAcquire();
+                if (permit != null) {
+                    completion.submit(timed(permit, attempt));
+                    running++;
+                    hedged.incrementAndGet();
+                }
+                continue;
+            }
+
+            running--;
+            try {
+                T result = done.get();
+                if (done != primary) {
+                    hedgeWins.incrementAndGet();
+                }
+                return result;
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw DependencyException.timedOut(CircuitBreaker.SQL.dependency, e);
+            }
+        }
+
+        if (failure instanceof SQLException) {
+            throw (SQLException) failure;
+        }
+        if (failure instanceof DependencyException) {
+            throw (DependencyException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw new IllegalStateException(failure);
+    }
+
+    /**
+     * Wraps an attempt so it releases its permit and records its latency when it finishes,
+     * even if nobody is waiting for it anymore.
+     */
+    private <T> Callable<T> timed(Bulkhead.Permit permit, Attempt<T> attempt) {
+        return () -> {
+            long start = System.nanoTime();
+            try (Bulkhead.Permit held = permit) {
+                T result = attempt.run();
+                record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                return result;
+            }
+        };
+    }
+
+    private synchronized void record(long millis) {
+        samples[nextSample] = millis;
+        nextSample = (nextSample + 1) % SAMPLE_COUNT;
+        sampleCount = Math.min(sampleCount + 1, SAMPLE_COUNT);
+    }
+
+    /**
+     * @return How long to wait before hedging, or -1 if there aren't enough samples yet.
+     */
+    private synchronized long hedgeDelayMillis() {
+        if (sampleCount < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        int index = Math.min(sampleCount - 1, (int) Math.ceil(sampleCount * PERCENTILE / 100.0) - 1);
+        return Math.max(MIN_DELAY_MILLIS, sorted[Math.max(0, index)]);
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("calls", calls.get());
+        metrics.put("hedged", hedged.get());
+        metrics.put("hedgeWins", hedgeWins.get());
+        metrics.put("hedgeDelayMs", hedgeDelayMillis());
+        return metrics;
+    }
+
+    /**
+     * @return Metrics of every hedged read, keyed by name.
+     */
+    public static Map<String, Object> allMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Hedge hedge : ALL) {
+            metrics.put(hedge.name, hedge.metrics());
+        }
+        return metrics;
+    }
+}
@@ -8,6 +8,7 @@ import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.Base64;
+import java.util.UUID;
 
 public class JwtGenerator {
     private static final long ACCESS_TOKEN_EXPIRY = 15 * 60 * 1000; // Lasts for 15 minutes
@@ -17,11 +18,15 @@ public class JwtGenerator {
         // Encoded in base64
         byte[] keyBytes = Base64.getDecoder().decode(signingKey);
         SecretKey sk = Keys.hmacShaKeyFor(keyBytes);
+        long now = System.currentTimeMillis();
 
+        // The ID and issue time let the token be revoked (see TokenRevocation)
         return Jwts.builder()
+                .id(UUID.randomUUID().toString())
                 .subject(String.valueOf(userId))
                 .claim("token-type", "access")
-                .expiration(new Date(System.currentTimeMillis() + ACCESS_TOKEN_EXPIRY))
+                .issuedAt(new Date(now))
+                .expiration(new Date(now + ACCESS_TOKEN_EXPIRY))
                 .signWith(sk)
                 .compact();
     }
@@ -30,11 +35,15 @@ public class JwtGenerator {
         // Encoded in base64
         byte[] keyBytes = Base64.getDecoder().decode(signingKey);
         SecretKey sk = Keys.hmacShaKeyFor(keyBytes);
+        long now = System.currentTimeMillis();
 
+        // The ID and issue time let the token be revoked (see TokenRevocation)
         return Jwts.builder()
+                .id(UUID.randomUUID().toString())
                 .subject(String.valueOf(userId))
                 .claim("token-type", "refresh")
-                .expiration(new Date(System.currentTimeMillis() + REFRESH_TOKEN_EXPIRY))
+                .issuedAt(new Date(now))
+                .expiration(new Date(now + REFRESH_TOKEN_EXPIRY))
                 .signWith(sk)
                 .compact();
     }
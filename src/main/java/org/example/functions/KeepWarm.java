@@ -0,0 +1,112 @@
+package org.example.functions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.TimerTrigger;
+import com.microsoft.azure.functions.annotation.WarmupTrigger;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Initializes the shared clients before the first request needs them, so the class loading and client setup
+ * that used to land on the first Login/GetSRI call happens up front.
+ *
+ * "Warmup" runs when a new instance is added (Premium and Dedicated plans). "KeepWarm" runs every 5 minutes and,
+ * when the app setting "KeepWarmEnabled" is "true", keeps a Consumption plan instance from being unloaded. It
+ * leaves the database alone unless "KeepWarmSql" is "true" too, as a query every 5 minutes would keep a
+ * serverless database from ever auto-pausing. Both are off by default since they're billed around the clock.
+ */
+public class KeepWarm {
+    private static final boolean ENABLED = Settings.getBoolean("KeepWarmEnabled", false);
+    private static final boolean INCLUDE_SQL = Settings.getBoolean("KeepWarmSql", false);
+
+    @FunctionName("Warmup")
+    public void warmup(
+            @WarmupTrigger(name = "warmupContext") Object warmupContext,
+            final ExecutionContext context) {
+        Log log = Log.of(context);
+        long start = System.currentTimeMillis();
+        warmUp(log, true);
+        log.info("Warm-up finished in {} ms", System.currentTimeMillis() - start);
+    }
+
+    @FunctionName("KeepWarm")
+    public void keepWarm(
+            @TimerTrigger(name = "timer", schedule = "0 */5 * * * *") String timerInfo,
+            final ExecutionContext context) {
+        if (!ENABLED) {
+            return;
+        }
+        Log log = Log.of(context);
+        long start = System.currentTimeMillis();
+        warmUp(log, INCLUDE_SQL);
+        log.info("Keep-warm finished in {} ms", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Touches every remote dependency once. Failures are only logged, since a request will retry them anyway.
+     *
+     * @param log The invocation's log.
+     * @param includeSql Whether to query the database and load the caches read from it.
+     */
+    static void warmUp(Log log, boolean includeSql) {
+        // Key Vault client, credential chain, and the jjwt implementation classes
+        try {
+            String signingKey = KeyVaultHelper.getSigningKey();
+            JwtGenerator.validateToken(JwtGenerator.generateAccessToken(0, signingKey), signingKey);
+        } catch (Exception e) {
+            log.warn("Warm-up of Key Vault/JWT failed: {}", e.getMessage());
+        }
+
+        // Blob pipeline (HTTP client, connection pool, TLS session)
+        try {
+            BlobStorageHelper.getContainer(BlobStorageHelper.IMAGES_CONTAINER).exists();
+        } catch (Exception e) {
+            log.warn("Warm-up of Blob Storage failed: {}", e.getMessage());
+        }
+
+        if (includeSql) {
+            warmUpSql(log);
+        }
+
+        // JSON serializers used by the responses
+        ResponseHelper.negotiateEncoding(null);
+        new ObjectMapper().createObjectNode();
+    }
+
+    private static void warmUpSql(Log log) {
+        // JDBC driver and one round trip, which also resumes a paused serverless database
+        String connectionString = System.getenv("SqlConnectionString");
+        if (connectionString != null && !connectionString.isEmpty()) {
+            try (Connection conn = SqlHelper.connect(connectionString, Deadline.after(30000));
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT 1")) {
+                rs.next();
+            } catch (Exception e) {
+                log.warn("Warm-up of SQL failed: {}", e.getMessage());
+            }
+        }
+
+        // Dashboard rollups and the search index take one scan of Signage each, so start them before the first request
+        SignageRollups.preload();
+        SignageSearch.preload();
+        try {
+            SriHierarchy.get(Deadline.after(30000));
+        } catch (Exception e) {
+            log.warn("Warm-up of SRI hierarchy failed: {}", e.getMessage());
+        }
+        try {
+            SignTypes.get(Deadline.after(30000));
+        } catch (Exception e) {
+            log.warn("Warm-up of sign types failed: {}", e.getMessage());
+        }
+        try {
+            TokenRevocation.get(Deadline.after(30000));
+        } catch (Exception e) {
+            log.warn("Warm-up of token revocations failed: {}", e.getMessage());
+        }
+    }
+}
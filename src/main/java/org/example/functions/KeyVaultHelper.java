@@ -7,24 +7,109 @@ import com.azure.identity.DefaultAzureCredentialBuilder;
 import com.azure.security.keyvault.secrets.SecretClient;
 import com.azure.security.keyvault.secrets.SecretClientBuilder;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 public class KeyVaultHelper {
     private static final String VAULT_URL = "https://am-auth.vault.azure.net/";
+    // Re-read the key every hour so a rotated key is picked up without a restart
+    private static final long SIGNING_KEY_TTL = 60 * 60 * 1000;
+
+    private static final long DEFAULT_TIMEOUT = Settings.getInt("KeyVaultTimeoutMs", 3000);
 
-    public static String getSigningKey() {
-        System.setProperty("AZURE_IDENTITY_LOG_LEVEL", "DEBUG");
+    private static volatile SecretClient secretClient;
+    private static volatile String signingKey;
+    private static volatile long signingKeyLoadedAt;
+    // The fetch in progress, shared by every caller that needs the key meanwhile. Guarded by the class lock.
+    private static Future<String> refresh;
 
-        SecretClient secretClient = new SecretClientBuilder()
-                .vaultUrl(VAULT_URL)
-                .credential(new DefaultAzureCredentialBuilder().build())
-                .buildClient();
+    public static String getSigningKey() throws DependencyException {
+        return getSigningKey(Deadline.after(DEFAULT_TIMEOUT));
+    }
+
+    /**
+     * Returns the signing key, fetching it from Key Vault if it's missing or due for a refresh. When a refresh
+     * fails or doesn't finish in time, the key fetched last time keeps being used.
+     *
+     * @param deadline How long the caller can wait for Key Vault.
+     * @throws DependencyException If there's no key yet and Key Vault didn't return one in time.
+     */
+    public static String getSigningKey(Deadline deadline) throws DependencyException {
+        String key = signingKey;
+        if (key != null && System.currentTimeMillis() - signingKeyLoadedAt < SIGNING_KEY_TTL) {
+            return key;
+        }
+
+        Future<String> pending;
+        synchronized (KeyVaultHelper.class) {
+            // Another thread may have refreshed it while we waited
+            if (signingKey != null && System.currentTimeMillis() - signingKeyLoadedAt < SIGNING_KEY_TTL) {
+                return signingKey;
+            }
+
+            if (refresh == null) {
+                try {
+                    CircuitBreaker.KEY_VAULT.check();
+                } catch (DependencyException e) {
+                    if (key != null) {
+                        return key;
+                    }
+                    throw e;
+                }
+                refresh = Deadline.submit(KeyVaultHelper::fetchSigningKey);
+            }
+            pending = refresh;
+        }
 
         try {
-            String value = secretClient.getSecret("jwt-key").getValue();
-            System.out.println("Secret retrieved successfully: " + value);
+            return deadline.await(pending, CircuitBreaker.KEY_VAULT.dependency);
+        } catch (DependencyException | ExecutionException e) {
+            if (key != null) {
+                return key;
+            }
+            if (e instanceof DependencyException) {
+                throw (DependencyException) e;
+            }
+            throw DependencyException.unavailable(CircuitBreaker.KEY_VAULT.dependency, 1, e.getCause());
+        }
+    }
+
+    private static String fetchSigningKey() {
+        try {
+            String value = getSecretClient().getSecret("jwt-key").getValue();
+            CircuitBreaker.KEY_VAULT.recordSuccess();
+
+            synchronized (KeyVaultHelper.class) {
+                signingKey = value;
+                signingKeyLoadedAt = System.currentTimeMillis();
+                refresh = null;
+            }
             return value;
         } catch (Exception e) {
-            e.printStackTrace();
+            // Logged by the request that gets the failure; the message never contains the secret
+            CircuitBreaker.KEY_VAULT.recordFailure();
+
+            synchronized (KeyVaultHelper.class) {
+                refresh = null;
+            }
             throw new RuntimeException("Error retrieving secret from Key Vault", e);
         }
     }
+
+    /**
+     * The client (and its credential chain) is expensive to build, so it's built once and shared.
+     */
+    private static SecretClient getSecretClient() {
+        if (secretClient == null) {
+            synchronized (KeyVaultHelper.class) {
+                if (secretClient == null) {
+                    secretClient = new SecretClientBuilder()
+                            .vaultUrl(VAULT_URL)
+                            .credential(new DefaultAzureCredentialBuilder().build())
+                            .buildClient();
+                }
+            }
+        }
+        return secretClient;
+    }
 }
@@ -0,0 +1,168 @@
+package org.example.functions;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.TraceContext;
+import org.slf4j.helpers.FormattingTuple;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logging for one invocation, written to the function's logger.
+ *
+ * Messages use slf4j's "{}" placeholders and are only formatted when they're actually written. A trailing
+ * Throwable argument is logged with its stack trace. Every line ends with the function name, invocation ID and
+ * correlation ID (the "x-correlation-id" header, else the W3C trace ID), so one request can be followed across
+ * lines and services.
+ *
+ * Only a sample of invocations write their info lines: "LogSampleRate" (0 to 1, default 1) for all functions, or
+ * "LogSample&lt;FunctionName&gt;" for one. The info lines of the other invocations are held back, and written
+ * after all if the invocation logs a warning or an error, so failures are always logged in full.
+ *
+ * Never pass secrets (keys, passwords, tokens) as arguments.
+ */
+public class Log {
+    private static final double DEFAULT_SAMPLE_RATE = Settings.getDouble("LogSampleRate", 1.0);
+    // Held-back lines per invocation; the oldest are dropped beyond this
+    private static final int MAX_HELD_BACK = 64;
+    private static final Map<String, Double> SAMPLE_RATES = new ConcurrentHashMap<>();
+
+    private final Logger logger;
+    private final String fields;
+    private final boolean sampled;
+    // Guarded by this
+    private ArrayDeque<Object[]> heldBack;
+    private int dropped;
+
+    private Log(Logger logger, String function, String invocationId, String correlationId) {
+        this.logger = logger;
+        this.fields = " | function=" + function + " invocationId=" + invocationId + " correlationId=" + correlationId;
+        double rate = sampleRate(function);
+        this.sampled = rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * @param request The request being handled, for its correlation headers.
+     * @param context General context
+     * @return The invocation's log.
+     */
+    public static Log of(HttpRequestMessage<?> request, ExecutionContext context) {
+        String correlationId = request.getHeaders().get("x-correlation-id");
+        if (correlationId == null || correlationId.isEmpty()) {
+            correlationId = traceId(request.getHeaders().get("traceparent"));
+        }
+        return of(context, correlationId);
+    }
+
+    /**
+     * @param context General context of a trigger without a request.
+     * @return The invocation's log.
+     */
+    public static Log of(ExecutionContext context) {
+        return of(context, null);
+    }
+
+    private static Log of(ExecutionContext context, String correlationId) {
+        if (correlationId == null || correlationId.isEmpty()) {
+            TraceContext trace = context.getTraceContext();
+            correlationId = trace != null ? traceId(trace.getTraceparent()) : null;
+        }
+        if (correlationId == null || correlationId.isEmpty()) {
+            correlationId = context.getInvocationId();
+        }
+        return new Log(context.getLogger(), context.getFunctionName(), context.getInvocationId(), correlationId);
+    }
+
+    /**
+     * Logs a step of a normal run. Only written for sampled invocations, or later if this one fails.
+     */
+    public void info(String format, Object... args) {
+        if (!logger.isLoggable(Level.INFO)) {
+            return;
+        }
+        if (sampled) {
+            write(Level.INFO, format, args);
+            return;
+        }
+
+        synchronized (this) {
+            if (heldBack == null) {
+                heldBack = new ArrayDeque<>();
+            } else if (heldBack.size() == MAX_HELD_BACK) {
+                heldBack.removeFirst();
+                dropped++;
+            }
+            heldBack.addLast(new Object[]{format, args});
+        }
+    }
+
+    /**
+     * Logs something that went wrong but was handled, after any held-back lines.
+     */
+    public void warn(String format, Object... args) {
+        flush();
+        write(Level.WARNING, format, args);
+    }
+
+    /**
+     * Logs a failure, after any held-back lines.
+     */
+    public void error(String format, Object... args) {
+        flush();
+        write(Level.SEVERE, format, args);
+    }
+
+    private void flush() {
+        ArrayDeque<Object[]> lines;
+        int droppedLines;
+        synchronized (this) {
+            if (heldBack == null) {
+                return;
+            }
+            lines = heldBack;
+            droppedLines = dropped;
+            heldBack = null;
+            dropped = 0;
+        }
+
+        if (droppedLines > 0) {
+            write(Level.INFO, "({} earlier lines dropped)", new Object[]{droppedLines});
+        }
+        for (Object[] line : lines) {
+            write(Level.INFO, (String) line[0], (Object[]) line[1]);
+        }
+    }
+
+    private void write(Level level, String format, Object[] args) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        FormattingTuple message = MessageFormatter.arrayFormat(format, args);
+        if (message.getThrowable() != null) {
+            logger.log(level, message.getMessage() + fields, message.getThrowable());
+        } else {
+            logger.log(level, message.getMessage() + fields);
+        }
+    }
+
+    /**
+     * @return The trace ID of a W3C traceparent ("version-traceid-spanid-flags"), or null.
+     */
+    private static String traceId(String traceparent) {
+        if (traceparent == null) {
+            return null;
+        }
+        String[] parts = traceparent.split("-");
+        return parts.length >= 4 ? parts[1] : null;
+    }
+
+    private static double sampleRate(String function) {
+        return SAMPLE_RATES.computeIfAbsent(function, name -> Settings.getDouble("LogSample" + name, DEFAULT_SAMPLE_RATE));
+    }
+}
@@ -0,0 +1,203 @@
+package org.example.functions;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal multipart/form-data parser. Parts are views into the original request body, so part content
+ * is never copied.
+ */
+public class MultipartParser {
+
+    /**
+     * Thrown when a body isn't valid multipart content.
+     */
+    public static class InvalidBodyException extends Exception {
+        InvalidBodyException(String message) {
+            super(message);
+        }
+    }
+
+    public static class Part {
+        public final String name;
+        public final String filename;
+        public final String contentType;
+        private final byte[] body;
+        public final int offset;
+        public final int length;
+
+        Part(String name, String filename, String contentType, byte[] body, int offset, int length) {
+            this.name = name;
+            this.filename = filename;
+            this.contentType = contentType;
+            this.body = body;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public InputStream openStream() {
+            return new ByteArrayInputStream(body, offset, length);
+        }
+
+        public String asString() {
+            return new String(body, offset, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return Whether the part is an uploaded file rather than a plain form field: it has a filename or an
+         * image content type.
+         */
+        public boolean isFile() {
+            return filename != null
+                    || (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("image/"));
+        }
+    }
+
+    /**
+     * Gets the boundary from a multipart Content-Type header.
+     *
+     * @param contentType The Content-Type header of the request.
+     * @return The boundary, or null if the header isn't multipart/form-data.
+     */
+    public static String getBoundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data")) {
+            return null;
+        }
+
+        for (String param : contentType.split(";")) {
+            String p = param.trim();
+            if (p.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+                String boundary = p.substring("boundary=".length());
+                if (boundary.startsWith("\"") && boundary.endsWith("\"") && boundary.length() > 1) {
+                    boundary = boundary.substring(1, boundary.length() - 1);
+                }
+                return boundary.isEmpty() ? null : boundary;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits a multipart body into its parts.
+     *
+     * @param body The raw request body.
+     * @param boundary The boundary from the Content-Type header.
+     * @return The parts in the order they appear in the body.
+     * @throws InvalidBodyException If the body isn't valid multipart content.
+     */
+    public static List<Part> parse(byte[] body, String boundary) throws InvalidBodyException {
+        byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        List<Part> parts = new ArrayList<>();
+
+        int pos = indexOf(body, delimiter, 0);
+        if (pos < 0) {
+            throw new InvalidBodyException("Multipart boundary not found in body.");
+        }
+
+        while (true) {
+            pos += delimiter.length;
+
+            // "--" after the delimiter closes the body
+            if (pos + 1 < body.length && body[pos] == '-' && body[pos + 1] == '-') {
+                return parts;
+            }
+            pos = skipLineBreak(body, pos);
+
+            int headerEnd = indexOf(body, new byte[] {'\r', '\n', '\r', '\n'}, pos);
+            if (headerEnd < 0) {
+                throw new InvalidBodyException("Malformed multipart part headers.");
+            }
+            Map<String, String> headers = parseHeaders(new String(body, pos, headerEnd - pos, StandardCharsets.UTF_8));
+            int contentStart = headerEnd + 4;
+
+            int next = indexOf(body, delimiter, contentStart);
+            if (next < 0) {
+                throw new InvalidBodyException("Multipart body is missing its closing boundary.");
+            }
+
+            // Content ends at the line break that precedes the next delimiter
+            int contentEnd = next;
+            if (contentEnd >= 2 && body[contentEnd - 2] == '\r' && body[contentEnd - 1] == '\n') {
+                contentEnd -= 2;
+            }
+
+            String disposition = headers.getOrDefault("content-disposition", "");
+            parts.add(new Part(
+                    getDispositionParam(disposition, "name"),
+                    getDispositionParam(disposition, "filename"),
+                    headers.get("content-type"),
+                    body,
+                    contentStart,
+                    Math.max(0, contentEnd - contentStart)
+            ));
+
+            pos = next;
+        }
+    }
+
+    /**
+     * @return The first part with the given form field name, or null if there isn't one.
+     */
+    public static Part find(List<Part> parts, String name) {
+        for (Part part : parts) {
+            if (name.equals(part.name)) {
+                return part;
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, String> parseHeaders(String block) {
+        Map<String, String> headers = new HashMap<>();
+        for (String line : block.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    private static String getDispositionParam(String disposition, String param) {
+        for (String p : disposition.split(";")) {
+            String trimmed = p.trim();
+            if (trimmed.toLowerCase(Locale.ROOT).startsWith(param + "=")) {
+                String value = trimmed.substring(param.length() + 1);
+                if (value.startsWith("\"") && value.endsWith("\"") && value.length() > 1) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static int skipLineBreak(byte[] body, int pos) {
+        if (pos < body.length && body[pos] == '\r') {
+            pos++;
+        }
+        if (pos < body.length && body[pos] == '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
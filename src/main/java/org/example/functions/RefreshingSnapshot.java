@@ -0,0 +1,269 @@
+package org.example.functions;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory copy of some table data that is loaded once and then reloaded in the background when it gets
+ * old. Callers only wait for the very first load; after that they get the current copy straight away while
+ * a newer one is built. Concurrent loads are collapsed into one.
+ *
+ * With a {@link Probe}, a cheap version query is run instead when the copy gets old, and the data is only
+ * reloaded if the version changed.
+ *
+ * Failed loads are logged, and reads wait before trying again: 1 s after the first failure, doubling up to the
+ * check interval. Meanwhile reads get the copy they had, or fail at once if there is none. A long run of failures
+ * is logged as a warning at the 1st, 2nd, 4th, 8th, ... failure, the others at FINE.
+ *
+ * @param <T> The loaded data.
+ */
+public class RefreshingSnapshot<T> {
+    private static final Logger LOGGER = Logger.getLogger(RefreshingSnapshot.class.getName());
+    private static final long FIRST_RETRY_MILLIS = 1000;
+    private static final List<RefreshingSnapshot<?>> ALL = new CopyOnWriteArrayList<>();
+
+    /**
+     * Builds a new copy of the data.
+     */
+    public interface Loader<T> {
+        T load(Deadline deadline) throws Exception;
+    }
+
+    /**
+     * Returns something that changes whenever the data does, e.g. the latest update time and row count.
+     */
+    public interface Probe {
+        Object version(Deadline deadline) throws Exception;
+    }
+
+    private final String name;
+    private final long maxAgeMillis;
+    private final long loadTimeoutMillis;
+    private final Loader<T> loader;
+    private final Probe probe;
+
+    private volatile T value;
+    private volatile long loadedAt;
+    // Last time a load or probe succeeded
+    private volatile long checkedAt;
+    private volatile Object version;
+    // Since the last success
+    private volatile int failures;
+    private volatile long failedAt;
+    private volatile Throwable lastFailure;
+    // Guarded by this
+    private Future<T> loading;
+
+    /**
+     * @param name Name shown to clients if the data can't be loaded.
+     * @param maxAgeMillis Age after which the next read starts a reload.
+     * @param loadTimeoutMillis Deadline handed to the loader.
+     * @param loader Builds the data.
+     */
+    public RefreshingSnapshot(String name, long maxAgeMillis, long loadTimeoutMillis, Loader<T> loader) {
+        this(name, maxAgeMillis, loadTimeoutMillis, loader, null);
+    }
+
+    /**
+     * @param name Name shown to clients if the data can't be loaded.
+     * @param checkIntervalMillis How often the next read runs the probe.
+     * @param loadTimeoutMillis Deadline handed to the probe and the loader.
+     * @param loader Builds the data.
+     * @param probe Tells whether the data changed since it was loaded.
+     */
+    public RefreshingSnapshot(String name, long checkIntervalMillis, long loadTimeoutMillis, Loader<T> loader,
+                              Probe probe) {
+        this.name = name;
+        this.maxAgeMillis = checkIntervalMillis;
+        this.loadTimeoutMillis = loadTimeoutMillis;
+        this.loader = loader;
+        this.probe = probe;
+        ALL.add(this);
+    }
+
+    /**
+     * @param deadline How long to wait if nothing has been loaded yet.
+     * @return The current data. May be up to one reload old.
+     * @throws DependencyException If nothing has been loaded yet and the load failed, didn't finish in time, or
+     * failed too recently to be tried again.
+     */
+    public T get(Deadline deadline) throws DependencyException {
+        T current = value;
+        if (current != null) {
+            if (System.currentTimeMillis() - checkedAt >= maxAgeMillis) {
+                refresh();
+            }
+            return current;
+        }
+
+        return await(refresh(), deadline);
+    }
+
+    /**
+     * Like {@link #get(Deadline)}, but for data that mustn't be used once it's too old: if it hasn't been checked
+     * for longer than the limit, waits for it to be.
+     *
+     * @param deadline How long to wait for the data to be loaded or checked.
+     * @param maxStaleMillis How long after it was last checked the data can still be used.
+     * @return The current data, checked at most that long ago.
+     * @throws DependencyException If the data couldn't be loaded or checked in time, or failed to be too recently
+     * to be tried again.
+     */
+    public T get(Deadline deadline, long maxStaleMillis) throws DependencyException {
+        T current = get(deadline);
+        if (System.currentTimeMillis() - checkedAt <= maxStaleMillis) {
+            return current;
+        }
+        return await(refresh(), deadline);
+    }
+
+    /**
+     * @param load The load in progress, or null while waiting to retry.
+     */
+    private T await(Future<T> load, Deadline deadline) throws DependencyException {
+        if (load == null) {
+            long retryMillis = failedAt + retryDelayMillis() - System.currentTimeMillis();
+            throw DependencyException.unavailable(name, (int) Math.max(1, (retryMillis + 999) / 1000), lastFailure);
+        }
+        try {
+            return deadline.await(load, name);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DependencyException) {
+                throw (DependencyException) e.getCause();
+            }
+            throw DependencyException.unavailable(name, 1, e.getCause());
+        }
+    }
+
+    /**
+     * @return The current data without loading anything, or null if it hasn't been loaded yet.
+     */
+    public T peek() {
+        return value;
+    }
+
+    /**
+     * @return When the current data was loaded, in epoch milliseconds, or 0 if it hasn't been.
+     */
+    public long loadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * @return When the data was last known to be current, because it was loaded or the probe found it unchanged,
+     * in epoch milliseconds, or 0 if it hasn't been loaded.
+     */
+    public long checkedAt() {
+        return checkedAt;
+    }
+
+    /**
+     * @return Load or probe failures in a row since the last success.
+     */
+    public int failures() {
+        return failures;
+    }
+
+    /**
+     * Starts a reload like {@link #reload}, unless the last one failed too recently.
+     *
+     * @return The load in progress, or null while waiting to retry.
+     */
+    private synchronized Future<T> refresh() {
+        if (loading == null && failures > 0 && System.currentTimeMillis() - failedAt < retryDelayMillis()) {
+            return null;
+        }
+        return reload();
+    }
+
+    private long retryDelayMillis() {
+        return Math.min(Math.max(maxAgeMillis, FIRST_RETRY_MILLIS), FIRST_RETRY_MILLIS << Math.min(Math.max(failures, 1) - 1, 20));
+    }
+
+    /**
+     * Starts a reload in the background, unless one is already running. With a probe, the data is only
+     * reloaded if its version changed.
+     *
+     * @return The load in progress.
+     */
+    public synchronized Future<T> reload() {
+        if (loading == null) {
+            loading = Deadline.submit(() -> {
+                try {
+                    Deadline deadline = Deadline.after(loadTimeoutMillis);
+                    // Read before loading, so a change made during the load triggers another one
+                    Object latest = probe != null ? probe.version(deadline) : null;
+                    T current = value;
+                    if (probe != null && current != null && latest != null && latest.equals(version)) {
+                        checkedAt = System.currentTimeMillis();
+                        succeeded();
+                        return current;
+                    }
+
+                    T loaded = loader.load(deadline);
+                    value = loaded;
+                    version = latest;
+                    loadedAt = System.currentTimeMillis();
+                    checkedAt = loadedAt;
+                    succeeded();
+                    return loaded;
+                } catch (Exception | Error e) {
+                    failed(e);
+                    throw e;
+                } finally {
+                    synchronized (this) {
+                        loading = null;
+                    }
+                }
+            });
+        }
+        return loading;
+    }
+
+    private void succeeded() {
+        if (failures > 0) {
+            LOGGER.info(name + " loaded again after " + failures + " failed attempt(s)");
+            failures = 0;
+            lastFailure = null;
+        }
+    }
+
+    private void failed(Throwable e) {
+        failedAt = System.currentTimeMillis();
+        lastFailure = e;
+        int count = ++failures;
+        String age = checkedAt > 0 ? "serving data last checked " + (failedAt - checkedAt) / 1000 + " s ago"
+                : "nothing loaded yet";
+        // The stack trace once per run of failures
+        LOGGER.log((count & (count - 1)) == 0 ? Level.WARNING : Level.FINE, name + " failed to load (" + count + " in a row, " + age + ", retrying in "
+                + retryDelayMillis() + " ms): " + e, count == 1 ? e : null);
+    }
+
+    public Map<String, Object> metrics() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("loaded", value != null);
+        metrics.put("loadedAt", loadedAt);
+        metrics.put("checkedAgeMs", checkedAt > 0 ? now - checkedAt : null);
+        metrics.put("failures", failures);
+        metrics.put("failedAt", failures > 0 ? failedAt : null);
+        return metrics;
+    }
+
+    /**
+     * @return Metrics of every snapshot created so far, keyed by name.
+     */
+    public static Map<String, Object> allMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (RefreshingSnapshot<?> snapshot : ALL) {
+            metrics.put(snapshot.name, snapshot.metrics());
+        }
+        return metrics;
+    }
+}
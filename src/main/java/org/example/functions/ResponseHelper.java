@@ -0,0 +1,261 @@
+package org.example.functions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.nimbusds.jose.shaded.gson.Gson;
+import io.airlift.compress.zstd.ZstdOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Builds JSON (or CBOR/Smile) responses, compressed with the best encoding the client accepts (zstd or gzip) once they pass
+ * a minimum size. The JSON is serialized straight into the compressor, so the uncompressed body is never
+ * held in memory in full.
+ */
+public class ResponseHelper {
+    private static final int DEFAULT_MIN_COMPRESS_BYTES = 1024;
+    private static final Gson GSON = new Gson();
+
+    private static final ObjectMapper CBOR_MAPPER = new ObjectMapper(new CBORFactory());
+    private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory());
+
+    public static final String JSON = "application/json";
+    public static final String CBOR = "application/cbor";
+    public static final String SMILE = "application/x-jackson-smile";
+
+    public static final String IDENTITY = "identity";
+    public static final String GZIP = "gzip";
+    public static final String ZSTD = "zstd";
+
+    /**
+     * Serializes the payload to JSON (the same way the Functions runtime would) and returns it with status 200.
+     *
+     * @param request Request being answered, used for Accept-Encoding.
+     * @param payload Object to serialize.
+     * @return The response, with Content-Encoding set if it was compressed.
+     */
+    public static HttpResponseMessage json(HttpRequestMessage<?> request, Object payload) {
+        return encode(request, JSON, out -> {
+            try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                GSON.toJson(payload, writer);
+            }
+        });
+    }
+
+    /**
+     * Returns table rows as JSON, or as CBOR/Smile if the Accept header asks for it. Binary formats write
+     * dates as epoch milliseconds instead of strings.
+     *
+     * @param request Request being answered, used for Accept and Accept-Encoding.
+     * @param rows Rows read from the table.
+     * @return The response in the negotiated format.
+     */
+    public static HttpResponseMessage rows(HttpRequestMessage<?> request, List<Map<String, Object>> rows) {
+        String format = negotiateFormat(request.getHeaders().get("accept"));
+        if (CBOR.equals(format)) {
+            return encode(request, CBOR, out -> CBOR_MAPPER.writeValue(out, rows));
+        }
+        if (SMILE.equals(format)) {
+            return encode(request, SMILE, out -> SMILE_MAPPER.writeValue(out, rows));
+        }
+        return json(request, rows);
+    }
+
+    private static HttpResponseMessage encode(HttpRequestMessage<?> request, String contentType, BodyWriter bodyWriter) {
+        String encoding = negotiateEncoding(request.getHeaders().get("accept-encoding"));
+
+        CompressingOutputStream out = new CompressingOutputStream(encoding, minCompressBytes());
+        try {
+            bodyWriter.write(out);
+            out.close();
+        } catch (IOException e) {
+            // Only written to memory, so this isn't expected
+            throw new UncheckedIOException(e);
+        }
+
+        HttpResponseMessage.Builder builder = request.createResponseBuilder(HttpStatus.OK)
+                .header("Content-Type", contentType)
+                .header("Vary", "Accept, Accept-Encoding");
+        if (out.isCompressed()) {
+            builder.header("Content-Encoding", encoding);
+        }
+        return builder.body(out.toByteArray()).build();
+    }
+
+    /**
+     * Picks a response format from an Accept header. JSON is used unless CBOR or Smile is accepted with
+     * at least the same weight.
+     *
+     * @return JSON, CBOR or SMILE.
+     */
+    public static String negotiateFormat(String accept) {
+        if (accept == null || accept.isEmpty()) {
+            return JSON;
+        }
+
+        double json = 0;
+        double cbor = 0;
+        double smile = 0;
+        for (String token : accept.split(",")) {
+            String[] params = token.trim().split(";");
+            String mediaType = params[0].trim().toLowerCase(Locale.ROOT);
+            double q = parseQuality(params);
+
+            if (mediaType.equals(CBOR)) {
+                cbor = q;
+            } else if (mediaType.equals(SMILE)) {
+                smile = q;
+            } else if (mediaType.equals(JSON) || mediaType.equals("application/*") || mediaType.equals("*/*")) {
+                json = Math.max(json, q);
+            }
+        }
+
+        if (cbor > 0 && cbor >= json && cbor >= smile) {
+            return CBOR;
+        }
+        if (smile > 0 && smile >= json) {
+            return SMILE;
+        }
+        return JSON;
+    }
+
+    /**
+     * Picks a response encoding from an Accept-Encoding header, preferring zstd over gzip when both are
+     * accepted with the same weight.
+     *
+     * @return ZSTD, GZIP or IDENTITY.
+     */
+    public static String negotiateEncoding(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+
+        double zstd = 0;
+        double gzip = 0;
+        double wildcard = -1;
+        boolean gzipListed = false;
+        for (String token : acceptEncoding.split(",")) {
+            String[] params = token.trim().split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double q = parseQuality(params);
+
+            if (coding.equals(ZSTD)) {
+                zstd = q;
+            } else if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                gzip = q;
+                gzipListed = true;
+            } else if (coding.equals("*")) {
+                wildcard = q;
+            }
+        }
+
+        // A wildcard only covers codings that weren't listed
+        if (wildcard >= 0 && !gzipListed) {
+            gzip = wildcard;
+        }
+
+        if (zstd > 0 && zstd >= gzip) {
+            return ZSTD;
+        }
+        if (gzip > 0) {
+            return GZIP;
+        }
+        return IDENTITY;
+    }
+
+    private static double parseQuality(String[] params) {
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static int minCompressBytes() {
+        return Settings.getInt("CompressionMinBytes", DEFAULT_MIN_COMPRESS_BYTES);
+    }
+
+    private interface BodyWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Holds back the first bytes written until the threshold is reached. Small bodies are then written as-is;
+     * anything larger is fed through the compressor from that point on.
+     */
+    static class CompressingOutputStream extends OutputStream {
+        private final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        private final String encoding;
+        private final byte[] pending;
+        private int pendingLength;
+        private OutputStream compressor;
+        private boolean closed;
+
+        CompressingOutputStream(String encoding, int threshold) {
+            this.encoding = encoding;
+            this.pending = new byte[IDENTITY.equals(encoding) ? 0 : Math.max(0, threshold)];
+        }
+
+        boolean isCompressed() {
+            return compressor != null;
+        }
+
+        byte[] toByteArray() {
+            return sink.toByteArray();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (compressor != null) {
+                compressor.write(b, off, len);
+            } else if (IDENTITY.equals(encoding)) {
+                sink.write(b, off, len);
+            } else if (pendingLength + len <= pending.length) {
+                System.arraycopy(b, off, pending, pendingLength, len);
+                pendingLength += len;
+            } else {
+                compressor = ZSTD.equals(encoding) ? new ZstdOutputStream(sink) : new GZIPOutputStream(sink, 8192);
+                compressor.write(pending, 0, pendingLength);
+                compressor.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (compressor != null) {
+                compressor.close();
+            } else {
+                sink.write(pending, 0, pendingLength);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.example.functions;
+
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * App settings, read from the environment. A setting that is missing or empty gets its default. So does one that
+ * can't be parsed, with a warning naming the setting (never its value), instead of an exception that would fail
+ * the class reading it and every request that touches that class.
+ */
+public class Settings {
+    private static final Logger LOGGER = Logger.getLogger(Settings.class.getName());
+
+    public static String getString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return invalid(name, defaultValue);
+        }
+    }
+
+    public static double getDouble(String name, double defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            double parsed = Double.parseDouble(value.trim());
+            return Double.isNaN(parsed) ? invalid(name, defaultValue) : parsed;
+        } catch (NumberFormatException e) {
+            return invalid(name, defaultValue);
+        }
+    }
+
+    /**
+     * @return True for "true", false for "false" (in any case), otherwise the default.
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "true":
+                return true;
+            case "false":
+                return false;
+            default:
+                return invalid(name, defaultValue);
+        }
+    }
+
+    private static <T> T invalid(String name, T defaultValue) {
+        LOGGER.warning("Invalid value for app setting " + name + ", using the default " + defaultValue);
+        return defaultValue;
+    }
+}
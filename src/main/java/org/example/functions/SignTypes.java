@@ -0,0 +1,196 @@
+package org.example.functions;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary of sign types, each with a compact integer ID, held in memory. Serves GetAllSignTypes without a
+ * query, and tells type filters which column they can use.
+ *
+ * With sql/037_sign_types.sql applied, the IDs come from the [Sign Type] table, so they're stable, and Signage
+ * has an indexed Type_Key column that filters can seek on. Without it, the types are read from Signage itself,
+ * filters fall back to casting [Type], and there are no IDs: positions in the list would change meaning as soon
+ * as a type is added.
+ *
+ * The dictionary is probed every "SignTypeProbeSeconds" (default 60) and reloaded when it changed. Both run on the
+ * read replica if there is one, so a type registered here shows up once the replica has it.
+ */
+public class SignTypes {
+    private static final long PROBE_MILLIS = Settings.getInt("SignTypeProbeSeconds", 60) * 1000L;
+    private static final long LOAD_TIMEOUT_MILLIS = 60 * 1000L;
+    // Type_Key and [Sign Type].Type are nvarchar(450), the longest that can be indexed
+    private static final int MAX_TYPE_LENGTH = 450;
+
+    private static final RefreshingSnapshot<SignTypes> SNAPSHOT = new RefreshingSnapshot<>("Sign types",
+            PROBE_MILLIS, LOAD_TIMEOUT_MILLIS, SignTypes::load, SignTypes::version);
+
+    private static final String HAS_LOOKUP_TABLE = "SELECT CASE WHEN COL_LENGTH('dbo.Signage', 'Type_Key') IS NOT NULL " +
+            "AND OBJECT_ID(N'dbo.[Sign Type]') IS NOT NULL THEN 1 ELSE 0 END";
+
+    // Inserts the type unless it's already there. Does nothing before the migration.
+    private static final String REGISTER_SQL = "IF OBJECT_ID(N'dbo.[Sign Type]') IS NOT NULL " +
+            "AND NOT EXISTS (SELECT 1 FROM dbo.[Sign Type] WHERE Type = ?) " +
+            "INSERT INTO dbo.[Sign Type] (Type) VALUES (?)";
+
+    private final boolean typeKey;
+    // Sorted by type, as GetAllSignTypes returns them
+    private final int[] ids;
+    private final String[] types;
+    private final Map<String, Integer> idsByType;
+    private final Map<Integer, String> typesById;
+
+    private SignTypes(boolean typeKey, int[] ids, String[] types) {
+        this.typeKey = typeKey;
+        this.ids = ids;
+        this.types = types;
+        this.idsByType = new HashMap<>(types.length * 2);
+        this.typesById = new HashMap<>(types.length * 2);
+        for (int i = 0; i < types.length; i++) {
+            idsByType.put(types[i], ids[i]);
+            typesById.put(ids[i], types[i]);
+        }
+    }
+
+    /**
+     * @param deadline How long to wait if the dictionary hasn't been loaded yet.
+     * @return The current dictionary.
+     */
+    public static SignTypes get(Deadline deadline) throws DependencyException {
+        return SNAPSHOT.get(deadline);
+    }
+
+    /**
+     * Adds the type of a newly inserted Signage record to the dictionary, if it's new.
+     *
+     * @param conn Connection the record was inserted with.
+     * @param type Type of the record.
+     */
+    public static void register(Connection conn, String type) throws SQLException {
+        if (type == null) {
+            return;
+        }
+        SignTypes current = SNAPSHOT.peek();
+        if (current != null && current.idsByType.containsKey(type)) {
+            return;
+        }
+
+        if (type.length() <= MAX_TYPE_LENGTH) {
+            try (PreparedStatement stmt = conn.prepareStatement(REGISTER_SQL)) {
+                stmt.setString(1, type);
+                stmt.setString(2, type);
+                stmt.executeUpdate();
+            } catch (SQLException e) {
+                // Another instance registered it first: unique key violation
+                if (e.getErrorCode() != 2627 && e.getErrorCode() != 2601) {
+                    throw e;
+                }
+            }
+        }
+
+        if (current != null) {
+            SNAPSHOT.reload();
+        }
+    }
+
+    /**
+     * @return Whether Signage has the indexed Type_Key column.
+     */
+    public boolean hasTypeKey() {
+        return typeKey;
+    }
+
+    /**
+     * @param type The type being filtered on.
+     * @return The SQL expression to filter Signage on its type with, compared to a string parameter.
+     */
+    public String typeFilterColumn(String type) {
+        // Longer types are truncated in Type_Key, so they can only be matched on the full value
+        return typeKey && type.length() <= MAX_TYPE_LENGTH ? "Type_Key" : "CAST([Type] AS nvarchar(max))";
+    }
+
+    /**
+     * @return The type with the ID, or null if there isn't one. Always null without the [Sign Type] table.
+     */
+    public String typeOf(int id) {
+        return typeKey ? typesById.get(id) : null;
+    }
+
+    /**
+     * @return All types, sorted.
+     */
+    public List<String> types() {
+        return Collections.unmodifiableList(Arrays.asList(types));
+    }
+
+    /**
+     * @return All types with their IDs, sorted by type. Without the [Sign Type] table, the types only.
+     */
+    public List<Map<String, Object>> entries() {
+        List<Map<String, Object>> entries = new ArrayList<>(types.length);
+        for (int i = 0; i < types.length; i++) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            if (typeKey) {
+                entry.put("id", ids[i]);
+            }
+            entry.put("type", types[i]);
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static Object version(Deadline deadline) throws SQLException, DependencyException, Bulkhead.RejectedException {
+        try (Bulkhead.Permit permit = Bulkhead.SQL_READ.acquire();
+             Connection conn = SqlHelper.connectForRead(deadline);
+             Statement stmt = conn.createStatement()) {
+            String query = hasLookupTable(stmt)
+                    ? "SELECT 1, COUNT(*), MAX(ID) FROM dbo.[Sign Type]"
+                    // A new type can only come with a new record
+                    : "SELECT 0, COUNT(*), MAX(ID) FROM dbo.[Signage]";
+            try (ResultSet rs = stmt.executeQuery(query)) {
+                rs.next();
+                return Arrays.asList(rs.getInt(1), rs.getLong(2), rs.getLong(3));
+            }
+        }
+    }
+
+    private static SignTypes load(Deadline deadline) throws SQLException, DependencyException, Bulkhead.RejectedException {
+        try (Bulkhead.Permit permit = Bulkhead.SQL_READ.acquire();
+             Connection conn = SqlHelper.connectForRead(deadline);
+             Statement stmt = conn.createStatement()) {
+            boolean lookupTable = hasLookupTable(stmt);
+            String query = lookupTable
+                    ? "SELECT ID, Type FROM dbo.[Sign Type] ORDER BY Type"
+                    : "SELECT DISTINCT CAST(Type AS nvarchar(max)) AS Type FROM dbo.[Signage] " +
+                      "WHERE Type IS NOT NULL ORDER BY CAST(Type AS nvarchar(max))";
+
+            List<Integer> ids = new ArrayList<>();
+            List<String> types = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery(query)) {
+                while (rs.next()) {
+                    // Without the table, positions in the sorted list fill in for IDs, which are never exposed
+                    ids.add(lookupTable ? rs.getInt("ID") : types.size() + 1);
+                    types.add(rs.getString("Type"));
+                }
+            }
+
+            return new SignTypes(lookupTable, ids.stream().mapToInt(Integer::intValue).toArray(),
+                    types.toArray(new String[0]));
+        }
+    }
+
+    private static boolean hasLookupTable(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(HAS_LOOKUP_TABLE)) {
+            return rs.next() && rs.getInt(1) == 1;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package org.example.functions;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.TimerTrigger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Nightly extract of the whole Signage table for the GIS team, each sign with the SLD SRI Master segment it
+ * lies on (its Street is the segment's SRI or Name, and its Milepost is within the segment's range).
+ *
+ * Rows are streamed from a forward-only, read-only result set straight into a block blob, so memory use doesn't
+ * depend on the number of rows: the driver holds one fetch of "ExportFetchSize" rows (default 5000) and the blob
+ * stream a few blocks. Only the segments are held in memory. The blob is committed when the export finishes, so
+ * a failed run never leaves a partial file behind. The scan runs on the read replica if there is one, which keeps
+ * it off the primary; a nightly extract can be as far behind as replica reads are allowed to be.
+ *
+ * Written to "signage/signage-yyyy-MM-dd.csv" in the "ExportContainer" container (default "exports"), as CSV
+ * or, with "ExportFormat" = "ndjson", one JSON object per line. Compressed with gzip (".gz") unless "ExportGzip"
+ * is "false". Runs at 02:00 UTC; set the app setting "AzureWebJobs.ExportSignage.Disabled" to "true" to turn
+ * it off.
+ */
+public class SignageExport {
+    private static final String CONTAINER = Settings.getString("ExportContainer", "exports");
+    private static final String FORMAT = Settings.getString("ExportFormat", "csv").toLowerCase(Locale.ROOT);
+    private static final boolean GZIP = Settings.getBoolean("ExportGzip", true);
+    private static final int FETCH_SIZE = Settings.getInt("ExportFetchSize", 5000);
+    private static final long BLOCK_SIZE = Settings.getInt("ExportBlockSizeMB", 8) * 1024L * 1024L;
+    // Just under the 10 minute function timeout in host.json
+    private static final long BUDGET_MILLIS = Settings.getInt("ExportBudgetMinutes", 9) * 60 * 1000L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String SIGNAGE_QUERY = "SELECT ID, Street, Milepost, Latitude, Longitude, Location, Posts, " +
+            "CAST(Type AS nvarchar(max)) AS Type, Height, Illuminated, Walkway, Ground_Treatment, Inventory_Date, " +
+            "Inventory_Time, Condition, Defect, Weather_Condition, Vehicle_Speed, Road_Type, Image_Type, " +
+            "Created_By, Image FROM dbo.[Signage] ORDER BY ID";
+    private static final String[] SRI_COLUMNS = {"SRI", "SRI_Name", "SRI_Direction", "Parent_SRI"};
+
+    private static class Segment {
+        final String[] values;
+        final double start;
+        final double end;
+
+        Segment(String[] values, double start, double end) {
+            this.values = values;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Writes one row at a time in the export's format.
+     */
+    private interface RowWriter {
+        void header(String[] columns) throws IOException;
+
+        void row(Object[] values) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    @FunctionName("ExportSignage")
+    public void exportSignage(
+            @TimerTrigger(name = "timer", schedule = "0 0 2 * * *") String timerInfo,
+            final ExecutionContext context) {
+        Log log = Log.of(context);
+        long start = System.currentTimeMillis();
+
+        String blobName = "signage/signage-" + LocalDate.now(ZoneOffset.UTC) + "." + FORMAT + (GZIP ? ".gz" : "");
+        long rows;
+        try {
+            rows = export(blobName, Deadline.after(BUDGET_MILLIS));
+        } catch (Exception e) {
+            log.error("Export of Signage to {} failed", blobName, e);
+            throw new RuntimeException("Export of Signage failed", e);
+        }
+
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+        log.info("Exported {} Signage rows to {}/{} in {} ms ({} rows/s)", rows, CONTAINER, blobName, millis,
+                rows * 1000 / millis);
+    }
+
+    /**
+     * @return Number of rows exported.
+     */
+    static long export(String blobName, Deadline deadline)
+            throws SQLException, DependencyException, Bulkhead.RejectedException, IOException {
+        if (!FORMAT.equals("csv") && !FORMAT.equals("ndjson")) {
+            throw new IllegalStateException("ExportFormat must be 'csv' or 'ndjson', not '" + FORMAT + "'");
+        }
+
+        try (Bulkhead.Permit permit = Bulkhead.SQL_READ.acquire();
+             Connection conn = SqlHelper.connectForRead(deadline);
+             Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            Map<String, List<Segment>> routes = loadSegments(stmt);
+
+            stmt.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery(SIGNAGE_QUERY)) {
+                ResultSetMetaData meta = rs.getMetaData();
+                int signageColumns = meta.getColumnCount();
+                String[] columns = new String[signageColumns + SRI_COLUMNS.length];
+                for (int i = 0; i < signageColumns; i++) {
+                    columns[i] = meta.getColumnLabel(i + 1);
+                }
+                System.arraycopy(SRI_COLUMNS, 0, columns, signageColumns, SRI_COLUMNS.length);
+
+                RowWriter writer = open(blobName, deadline);
+                writer.header(columns);
+
+                // Reused for every row
+                Object[] values = new Object[columns.length];
+                long rows = 0;
+                while (rs.next()) {
+                    for (int i = 0; i < signageColumns; i++) {
+                        values[i] = rs.getObject(i + 1);
+                    }
+                    Segment segment = find(routes, (String) values[1], (Number) values[2]);
+                    for (int i = 0; i < SRI_COLUMNS.length; i++) {
+                        values[signageColumns + i] = segment != null ? segment.values[i] : null;
+                    }
+                    writer.row(values);
+                    rows++;
+
+                    if ((rows & 0xFFFF) == 0) {
+                        deadline.check("Signage export");
+                    }
+                }
+
+                // Not closed on failure: closing commits the blob, and uncommitted blocks are cleaned up by the service
+                writer.close();
+                return rows;
+            }
+        }
+    }
+
+    private static Map<String, List<Segment>> loadSegments(Statement stmt) throws SQLException {
+        Map<String, List<Segment>> routes = new HashMap<>();
+        try (ResultSet rs = stmt.executeQuery("SELECT SRI, Name, Direction, Parent_SRI, Start_Milepost, " +
+                "End_Milepost FROM dbo.[SLD SRI Master] ORDER BY Start_Milepost")) {
+            while (rs.next()) {
+                Segment segment = new Segment(new String[]{rs.getString("SRI"), rs.getString("Name"),
+                        rs.getString("Direction"), rs.getString("Parent_SRI")},
+                        rs.getDouble("Start_Milepost"), rs.getDouble("End_Milepost"));
+                addRoute(routes, segment.values[0], segment);
+                addRoute(routes, segment.values[1], segment);
+            }
+        }
+        return routes;
+    }
+
+    private static void addRoute(Map<String, List<Segment>> routes, String route, Segment segment) {
+        if (route != null && !route.trim().isEmpty()) {
+            routes.computeIfAbsent(route.trim().toUpperCase(Locale.ROOT), k -> new ArrayList<>()).add(segment);
+        }
+    }
+
+    /**
+     * @return The first segment of the street containing the milepost, or null.
+     */
+    private static Segment find(Map<String, List<Segment>> routes, String street, Number milepost) {
+        if (street == null || milepost == null) {
+            return null;
+        }
+        List<Segment> segments = routes.get(street.trim().toUpperCase(Locale.ROOT));
+        if (segments == null) {
+            return null;
+        }
+        double mp = milepost.doubleValue();
+        for (Segment segment : segments) {
+            if (segment.start <= mp && mp <= segment.end) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private static RowWriter open(String blobName, Deadline deadline) throws DependencyException, IOException {
+        String contentType = GZIP ? "application/gzip"
+                : FORMAT.equals("csv") ? "text/csv; charset=utf-8" : "application/x-ndjson";
+        OutputStream out = BlobStorageHelper.openOutputStream(CONTAINER, blobName, contentType, BLOCK_SIZE, deadline);
+        if (GZIP) {
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        return FORMAT.equals("csv") ? csv(writer) : ndjson(writer);
+    }
+
+    private static RowWriter csv(Writer writer) {
+        return new RowWriter() {
+            @Override
+            public void header(String[] columns) throws IOException {
+                row(columns);
+            }
+
+            @Override
+            public void row(Object[] values) throws IOException {
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    if (values[i] != null) {
+                        Csv.writeField(writer, text(values[i]));
+                    }
+                }
+                writer.write("\r\n");
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+        };
+    }
+
+    private static RowWriter ndjson(Writer writer) throws IOException {
+        // Rows are separated by the newlines written below, instead of Jackson's default space
+        JsonGenerator json = new JsonFactory().setRootValueSeparator(null).createGenerator(writer);
+        return new RowWriter() {
+            private String[] columns;
+
+            @Override
+            public void header(String[] columns) {
+                this.columns = columns;
+            }
+
+            @Override
+            public void row(Object[] values) throws IOException {
+                json.writeStartObject();
+                for (int i = 0; i < values.length; i++) {
+                    json.writeFieldName(columns[i]);
+                    Object value = values[i];
+                    if (value == null) {
+                        json.writeNull();
+                    } else if (value instanceof Boolean) {
+                        json.writeBoolean((Boolean) value);
+                    } else if (value instanceof Number) {
+                        json.writeNumber(value.toString());
+                    } else {
+                        json.writeString(text(value));
+                    }
+                }
+                json.writeEndObject();
+                json.writeRaw('\n');
+            }
+
+            @Override
+            public void close() throws IOException {
+                json.close();
+            }
+        };
+    }
+
+    /**
+     * Dates and times as ISO-8601, everything else as its string value.
+     */
+    private static String text(Object value) {
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toLocalDateTime().toString();
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,530 @@
+package org.example.functions;
+
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.specialized.BlobInputStream;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.annotation.EventGridTrigger;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.sqlserver.jdbc.ISQLServerBulkData;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopy;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopyOptions;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads contractors' historical inventories into Signage. A CSV file dropped into the "imports" container is
+ * streamed from Blob Storage and read record by record, each record is checked against the same rules as
+ * UploadSignage, and the valid ones are bulk copied into Signage "ImportChunkSize" (default 5000) rows at a time.
+ *
+ * The function is triggered by the storage account's BlobCreated events, through an Event Grid subscription
+ * filtered on subjects starting with "/blobServices/default/containers/imports/". The event only names the file,
+ * so a large one never has to fit in memory.
+ *
+ * The header names the columns, using the same names as the UploadSignage metadata (street, milepost, lat, long,
+ * location, posts, type, height, illuminated, walkway, ground_treatment, inventory_date, condition, defect,
+ * weather_condition, vehicle_speed, road_type, image_type, created_by), plus an optional image with the name of
+ * an already uploaded image blob. Columns can be in any order; unknown columns are ignored.
+ *
+ * Rejected records are written to "import-rejects/&lt;name&gt;.rejects.csv" with their line number and reason,
+ * followed by the record as it was. If the database refuses a chunk, it's split in halves and each half is
+ * copied again, down to single rows, so only the records at fault are rejected. Each chunk is committed on its own, so if the import stops part way (the
+ * database is down, or it runs past "ImportBudgetMinutes", default 9) the rows before it stay loaded; the reject
+ * file and the log say which line it stopped at. The file is not retried automatically, since that would load
+ * those rows twice.
+ *
+ * Event Grid delivers each event at least once, so every version of a file is only imported once: before it
+ * starts, an empty "import-markers/&lt;name&gt;/&lt;ETag&gt;" blob is created, and an event for a version that
+ * already has one is ignored. Uploading the file again gives it a new ETag, which imports it again.
+ */
+public class SignageImport {
+    private static final int CHUNK_SIZE = Settings.getInt("ImportChunkSize", 5000);
+    private static final long BUDGET_MILLIS = Settings.getInt("ImportBudgetMinutes", 9) * 60 * 1000L;
+    private static final String IMPORTS_CONTAINER = "imports";
+    private static final String IMPORTS_SUBJECT = "/blobServices/default/containers/" + IMPORTS_CONTAINER + "/blobs/";
+    private static final String REJECTS_CONTAINER = "import-rejects";
+    private static final String MARKERS_CONTAINER = "import-markers";
+    private static final int READ_BLOCK_SIZE = 4 * 1024 * 1024;
+    private static final long REJECTS_BLOCK_SIZE = 4 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Set<String> DOUBLE_FIELDS = new HashSet<>(Arrays.asList(
+            "milepost", "lat", "long", "height"));
+    private static final Set<String> INT_FIELDS = new HashSet<>(Arrays.asList(
+            "posts", "vehicle_speed"));
+    private static final Set<String> BOOLEAN_FIELDS = new HashSet<>(Arrays.asList(
+            "illuminated", "walkway"));
+    private static final Set<String> TEXT_FIELDS = new HashSet<>(Arrays.asList(
+            "street", "location", "type", "ground_treatment", "inventory_date", "condition", "defect",
+            "weather_condition", "road_type", "image_type", "created_by", "image"));
+    private static final String[] REQUIRED_FIELDS = {"street", "location", "illuminated", "walkway", "inventory_date"};
+
+    /**
+     * Signage columns in the order of {@link #values}, with the JDBC type, precision and scale they're sent as.
+     */
+    private static final String[] COLUMNS = {"Street", "Milepost", "Latitude", "Longitude", "Location", "Posts",
+            "Type", "Height", "Illuminated", "Walkway", "Ground_Treatment", "Inventory_Date", "Image",
+            "Inventory_Time", "Condition", "Defect", "Weather_Condition", "Vehicle_Speed", "Road_Type", "Image_Type",
+            "Created_By"};
+    private static final int[] COLUMN_TYPES = {Types.NVARCHAR, Types.DOUBLE, Types.DOUBLE, Types.DOUBLE,
+            Types.NVARCHAR, Types.INTEGER, Types.NVARCHAR, Types.DOUBLE, Types.BIT, Types.BIT, Types.NVARCHAR,
+            Types.DATE, Types.NVARCHAR, Types.TIME, Types.NVARCHAR, Types.NVARCHAR, Types.NVARCHAR, Types.INTEGER,
+            Types.NVARCHAR, Types.NVARCHAR, Types.NVARCHAR};
+
+    /**
+     * A valid record waiting to be copied, with what's needed to reject it if its chunk fails.
+     */
+    private static class Pending {
+        final int line;
+        final List<String> fields;
+        final SignageRecord record;
+        final String image;
+
+        Pending(int line, List<String> fields, SignageRecord record, String image) {
+            this.line = line;
+            this.fields = fields;
+            this.record = record;
+            this.image = image;
+        }
+    }
+
+    /**
+     * One chunk of records, in the shape bulk copy reads them.
+     */
+    private static class Chunk implements ISQLServerBulkData {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Pending> rows;
+        private int next;
+
+        Chunk(List<Pending> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Set<Integer> getColumnOrdinals() {
+            Set<Integer> ordinals = new LinkedHashSet<>();
+            for (int i = 1; i <= COLUMNS.length; i++) {
+                ordinals.add(i);
+            }
+            return ordinals;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column - 1];
+        }
+
+        @Override
+        public int getColumnType(int column) {
+            return COLUMN_TYPES[column - 1];
+        }
+
+        @Override
+        public int getPrecision(int column) {
+            switch (COLUMN_TYPES[column - 1]) {
+                case Types.NVARCHAR:
+                    return 4000;
+                case Types.DOUBLE:
+                    return 15;
+                case Types.INTEGER:
+                    return 10;
+                case Types.DATE:
+                    return 10;
+                case Types.TIME:
+                    return 8;
+                default:
+                    return 1;
+            }
+        }
+
+        @Override
+        public int getScale(int column) {
+            return 0;
+        }
+
+        @Override
+        public boolean next() {
+            return ++next <= rows.size();
+        }
+
+        @Override
+        public Object[] getRowData() {
+            Pending row = rows.get(next - 1);
+            return values(row.record, row.image);
+        }
+    }
+
+    @FunctionName("ImportSignage")
+    public void importSignage(
+            @EventGridTrigger(name = "event") String event,
+            final ExecutionContext context) {
+        Log log = Log.of(context);
+        String name;
+        try {
+            JsonNode data = new ObjectMapper().readTree(event);
+            name = importName(data.path("eventType").asText(), data.path("subject").asText());
+        } catch (IOException e) {
+            log.error("Ignored an event that isn't valid JSON", e);
+            return;
+        }
+        if (name == null) {
+            log.info("Ignored an event that isn't a file created in {}", IMPORTS_CONTAINER);
+            return;
+        }
+        new Run(name, log, Deadline.after(BUDGET_MILLIS)).execute();
+    }
+
+    /**
+     * @return Name of the file to import, or null if the event isn't about one.
+     */
+    static String importName(String eventType, String subject) {
+        if (!"Microsoft.Storage.BlobCreated".equals(eventType) || !subject.startsWith(IMPORTS_SUBJECT)
+                || subject.length() == IMPORTS_SUBJECT.length()) {
+            return null;
+        }
+        return subject.substring(IMPORTS_SUBJECT.length());
+    }
+
+    /**
+     * State of one import.
+     */
+    private static class Run {
+        final String name;
+        final Log log;
+        final Deadline deadline;
+        final long startedAt = System.currentTimeMillis();
+
+        List<String> header;
+        Writer rejects;
+        long read;
+        long loaded;
+        long rejected;
+        int chunks;
+
+        Run(String name, Log log, Deadline deadline) {
+            this.name = name;
+            this.log = log;
+            this.deadline = deadline;
+        }
+
+        void execute() {
+            Csv.Reader csv = null;
+            String stoppedBy = null;
+
+            try (BlobInputStream content = BlobStorageHelper.openInputStream(IMPORTS_CONTAINER, name,
+                    READ_BLOCK_SIZE, deadline)) {
+                String marker = name + "/" + content.getProperties().getETag().replace("\"", "");
+                if (!BlobStorageHelper.createIfNotExists(MARKERS_CONTAINER, marker, deadline)) {
+                    log.info("Import of {} skipped: this version of the file was already imported", name);
+                    return;
+                }
+
+                try (Connection conn = SqlHelper.connect(System.getenv("SqlConnectionString"), deadline)) {
+                    csv = new Csv.Reader(new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8),
+                            BUFFER_SIZE));
+                    header = csv.next();
+                    if (header == null) {
+                        log.warn("Import of {} skipped: the file is empty", name);
+                        return;
+                    }
+                    Map<String, Integer> columns = columns(header);
+                    List<String> missing = new ArrayList<>();
+                    for (String field : REQUIRED_FIELDS) {
+                        if (!columns.containsKey(field)) {
+                            missing.add(field);
+                        }
+                    }
+                    if (!missing.isEmpty()) {
+                        note(csv.line(), "Header is missing required columns: " + String.join(", ", missing), header);
+                        stoppedBy = "missing columns";
+                        return;
+                    }
+
+                    List<Pending> chunk = new ArrayList<>(CHUNK_SIZE);
+                    List<String> fields;
+                    while ((fields = csv.next()) != null) {
+                        read++;
+                        Pending pending = parse(csv.line(), fields, columns);
+                        if (pending != null) {
+                            chunk.add(pending);
+                        }
+                        if (chunk.size() == CHUNK_SIZE) {
+                            copy(conn, chunk);
+                            chunk = new ArrayList<>(CHUNK_SIZE);
+                        }
+                    }
+                    copy(conn, chunk);
+                }
+            } catch (BlobStorageException e) {
+                if (e.getStatusCode() != 404) {
+                    throw e;
+                }
+                // Deleted, or renamed, before it was picked up
+                stoppedBy = "file not found";
+                log.warn("Import of {} skipped: the file is gone", name);
+            } catch (DependencyException | SQLException | IOException e) {
+                // Stops the import; what's loaded so far stays loaded
+                int line = csv != null ? csv.line() : 0;
+                stoppedBy = e.getMessage();
+                log.error("Import of {} stopped after line {}, with {} rows loaded", name, line, loaded, e);
+                try {
+                    note(line, "Import stopped here: " + e.getMessage(), new ArrayList<>());
+                } catch (IOException | DependencyException ignored) {
+                    // Already logged
+                }
+            } finally {
+                finish(stoppedBy);
+            }
+        }
+
+        /**
+         * @return Column index of each known field of the header.
+         */
+        private Map<String, Integer> columns(List<String> header) {
+            Map<String, Integer> columns = new HashMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                String column = header.get(i).trim().toLowerCase(Locale.ROOT);
+                // Excel starts UTF-8 files with a byte order mark
+                if (i == 0 && column.startsWith("\uFEFF")) {
+                    column = column.substring(1);
+                }
+                columns.put(column, i);
+            }
+            return columns;
+        }
+
+        /**
+         * @return The record, or null if it was rejected.
+         */
+        private Pending parse(int line, List<String> fields, Map<String, Integer> columns)
+                throws IOException, DependencyException {
+            if (fields.size() != header.size()) {
+                reject(line, "Expected " + header.size() + " fields, found " + fields.size(), fields);
+                return null;
+            }
+
+            ObjectNode data = JsonNodeFactory.instance.objectNode();
+            for (Map.Entry<String, Integer> column : columns.entrySet()) {
+                String field = column.getKey();
+                String value = fields.get(column.getValue()).trim();
+                if (value.isEmpty()) {
+                    continue;
+                }
+                try {
+                    if (DOUBLE_FIELDS.contains(field)) {
+                        data.put(field, Double.parseDouble(value));
+                    } else if (INT_FIELDS.contains(field)) {
+                        data.put(field, Integer.parseInt(value));
+                    } else if (BOOLEAN_FIELDS.contains(field)) {
+                        data.put(field, parseBoolean(value));
+                    } else if (TEXT_FIELDS.contains(field)) {
+                        data.put(field, value);
+                    }
+                } catch (IllegalArgumentException e) {
+                    reject(line, "Invalid " + field + ": " + value, fields);
+                    return null;
+                }
+            }
+
+            SignageRecord record;
+            try {
+                record = SignageRecord.fromJson(data);
+            } catch (DateTimeParseException e) {
+                reject(line, "Invalid inventory_date, expected yyyy-MM-dd HH:mm:ss", fields);
+                return null;
+            }
+            if (!record.hasRequiredFields()) {
+                reject(line, "Missing non-nullable fields", fields);
+                return null;
+            }
+            return new Pending(line, fields, record, data.hasNonNull("image") ? data.get("image").asText() : null);
+        }
+
+        /**
+         * Bulk copies one chunk in its own transaction. If the database refuses it, the halves are copied on their
+         * own, down to single rows, which are rejected; then the import goes on with the next chunk.
+         */
+        private void copy(Connection conn, List<Pending> chunk)
+                throws SQLException, DependencyException, IOException {
+            if (chunk.isEmpty()) {
+                return;
+            }
+
+            try {
+                write(conn, chunk);
+            } catch (SQLException e) {
+                DependencyException failure = SqlHelper.failure(e, deadline);
+                if (failure != null) {
+                    throw failure;
+                }
+                if (chunk.size() == 1) {
+                    reject(chunk.get(0).line, "Rejected by the database: " + e.getMessage(), chunk.get(0).fields);
+                    return;
+                }
+                log.warn("Chunk of {} rows from {} rejected, retrying in halves: {}", chunk.size(), name,
+                        e.getMessage());
+                int half = chunk.size() / 2;
+                copy(conn, chunk.subList(0, half));
+                copy(conn, chunk.subList(half, chunk.size()));
+                return;
+            }
+
+            chunks++;
+            loaded += chunk.size();
+
+            Set<String> types = new HashSet<>();
+            for (Pending row : chunk) {
+                if (row.image != null) {
+                    SignageLookup.invalidate(row.image);
+                }
+                if (row.record.type != null && types.add(row.record.type)) {
+                    try {
+                        SignTypes.register(conn, row.record.type);
+                    } catch (SQLException e) {
+                        // Picked up by the next dictionary reload instead
+                        log.warn("Failed to register sign type: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Bulk copies the rows in one transaction, all or nothing.
+         */
+        private void write(Connection conn, List<Pending> chunk) throws SQLException, DependencyException {
+            deadline.check(CircuitBreaker.SQL.dependency);
+            try (Bulkhead.Permit permit = acquire();
+                 SQLServerBulkCopy bulkCopy = new SQLServerBulkCopy(conn)) {
+                SQLServerBulkCopyOptions options = new SQLServerBulkCopyOptions();
+                options.setBatchSize(chunk.size());
+                options.setUseInternalTransaction(true);
+                options.setCheckConstraints(true);
+                options.setBulkCopyTimeout((int) Math.max(1, deadline.remainingMillis() / 1000));
+                bulkCopy.setBulkCopyOptions(options);
+                bulkCopy.setDestinationTableName("dbo.[Signage]");
+                for (String column : COLUMNS) {
+                    bulkCopy.addColumnMapping(column, column);
+                }
+                bulkCopy.writeToServer(new Chunk(chunk));
+            }
+        }
+
+        /**
+         * Waits for a write slot, since a batch job can afford to queue behind interactive uploads.
+         */
+        private Bulkhead.Permit acquire() throws DependencyException {
+            while (true) {
+                try {
+                    return Bulkhead.SQL_WRITE.acquire();
+                } catch (Bulkhead.RejectedException e) {
+                    deadline.check(CircuitBreaker.SQL.dependency);
+                    try {
+                        Thread.sleep(Math.min(e.retryAfterSeconds * 1000L, Math.max(1, deadline.remainingMillis())));
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        throw DependencyException.timedOut(CircuitBreaker.SQL.dependency, interrupted);
+                    }
+                }
+            }
+        }
+
+        private void reject(int line, String reason, List<String> fields) throws IOException, DependencyException {
+            note(line, reason, fields);
+            rejected++;
+        }
+
+        /**
+         * Writes a line to the reject file, opening it first if this is the first one.
+         */
+        private void note(int line, String reason, List<String> fields) throws IOException, DependencyException {
+            if (rejects == null) {
+                rejects = new BufferedWriter(new OutputStreamWriter(BlobStorageHelper.openOutputStream(
+                        REJECTS_CONTAINER, name + ".rejects.csv", "text/csv; charset=utf-8", REJECTS_BLOCK_SIZE,
+                        deadline), StandardCharsets.UTF_8), BUFFER_SIZE);
+                List<String> columns = new ArrayList<>();
+                columns.add("line");
+                columns.add("reason");
+                if (header != null) {
+                    columns.addAll(header);
+                }
+                Csv.writeRecord(rejects, columns.toArray());
+            }
+
+            List<String> record = new ArrayList<>(fields.size() + 2);
+            record.add(String.valueOf(line));
+            record.add(reason);
+            record.addAll(fields);
+            Csv.writeRecord(rejects, record.toArray());
+        }
+
+        private void finish(String stoppedBy) {
+            if (rejects != null) {
+                try {
+                    rejects.close();
+                } catch (IOException e) {
+                    log.error("Failed to write rejects of {}", name, e);
+                }
+            }
+
+            long millis = Math.max(1, System.currentTimeMillis() - startedAt);
+            String summary = "Import of {}: {} records read, {} loaded in {} chunks, {} rejected, in {} ms ({} rows/s)";
+            Object[] args = {name, read, loaded, chunks, rejected, millis, loaded * 1000 / millis};
+            if (stoppedBy != null || rejected > 0) {
+                log.warn(summary, args);
+            } else {
+                log.info(summary, args);
+            }
+        }
+    }
+
+    private static boolean parseBoolean(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "true":
+            case "1":
+            case "yes":
+                return true;
+            case "false":
+            case "0":
+            case "no":
+                return false;
+            default:
+                throw new IllegalArgumentException(value);
+        }
+    }
+
+    /**
+     * @return The record's column values, in the order of {@link #COLUMNS}.
+     */
+    private static Object[] values(SignageRecord record, String image) {
+        return new Object[]{
+                record.street, record.milepost, record.lat, record.lon, record.location, record.posts,
+                record.type, record.height, record.illuminated, record.walkway, record.groundTreatment,
+                java.sql.Date.valueOf(record.inventoryDate), image, java.sql.Time.valueOf(record.inventoryTime),
+                record.condition, record.defect, record.weatherCondition, record.vehicleSpeed, record.roadType,
+                record.imageType, record.createdBy
+        };
+    }
+}
@@ -0,0 +1,180 @@
+package org.example.functions;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Looks up Signage records by image name, through a bounded in-process cache. Misses are resolved in as few
+ * round trips as possible by joining chunks of names, and the read is hedged if it's slow. UploadSignage invalidates the image it writes; records written
+ * through other instances are picked up once their cache entry expires.
+ *
+ * Misses are read from the read replica when there is one. As that can still be missing a write made here, an image
+ * isn't cached again until the replica's allowed staleness, or the cache TTL if its lag isn't checked, has passed
+ * since it was last invalidated.
+ *
+ * Names are cached the way the Image column compares them: ignoring case and trailing spaces.
+ */
+public class SignageLookup {
+    public static final String[] COLUMNS = {"ID", "Street", "Milepost", "Latitude", "Longitude", "Location", "Posts",
+                                            "Type", "Height", "Illuminated", "Walkway", "Ground_Treatment", "Inventory_Date",
+                                            "Inventory_Time", "Condition", "Defect", "Weather_Condition", "Vehicle_Speed",
+                                            "Road_Type", "Image_Type", "Created_By"};
+
+    // Names per query, well under SQL Server's limit of 2100 parameters per statement
+    private static final int IN_LIST_CHUNK = 500;
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+    private static final long DEFAULT_TTL_SECONDS = 300;
+
+    private static class Cached {
+        final List<Map<String, Object>> rows;
+        final long loadedAt;
+
+        Cached(List<Map<String, Object>> rows, long loadedAt) {
+            this.rows = rows;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static final int CACHE_SIZE = Settings.getInt("SignageCacheSize", DEFAULT_CACHE_SIZE);
+    private static final long TTL_MILLIS = Settings.getInt("SignageCacheTtlSeconds", (int) DEFAULT_TTL_SECONDS) * 1000L;
+
+    private static final Map<String, Cached> CACHE = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    // When each image was last invalidated, oldest first, so a load that raced with its upload, or read a replica
+    // that may not have it yet, doesn't cache it. Kept for one TTL, which is longer than it's ever checked for.
+    private static final Map<String, Long> INVALIDATED = new LinkedHashMap<>();
+
+    /**
+     * @param images Image names to look up.
+     * @param deadline The request's deadline.
+     * @return The Signage records of each image, in request order. Images without records map to an empty list.
+     * @throws Bulkhead.RejectedException If there are misses and SQL reads are at capacity.
+     * @throws DependencyException If there are misses and the database didn't answer in time.
+     */
+    public static Map<String, List<Map<String, Object>>> lookup(Collection<String> images, Deadline deadline)
+            throws SQLException, Bulkhead.RejectedException, DependencyException {
+        Map<String, List<Map<String, Object>>> results = new LinkedHashMap<>();
+        List<String> misses = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        synchronized (CACHE) {
+            for (String image : new LinkedHashSet<>(images)) {
+                Cached cached = CACHE.get(key(image));
+                if (cached != null && now - cached.loadedAt < TTL_MILLIS) {
+                    results.put(image, cached.rows);
+                } else {
+                    results.put(image, null);
+                    misses.add(image);
+                }
+            }
+        }
+
+        if (misses.isEmpty()) {
+            return results;
+        }
+
+        Map<String, List<Map<String, Object>>> loaded = Hedge.SIGNAGE_LOOKUP.call(Bulkhead.SQL_READ, deadline,
+                () -> load(misses, deadline));
+
+        // Invalidated after this point: either while it was loading, or too recently for the replica to have it
+        long notBefore = now - Math.min(SqlHelper.readStalenessMillis(), TTL_MILLIS);
+        synchronized (CACHE) {
+            for (String image : misses) {
+                List<Map<String, Object>> rows = loaded.containsKey(image)
+                        ? Collections.unmodifiableList(loaded.get(image))
+                        : Collections.<Map<String, Object>>emptyList();
+                results.put(image, rows);
+                String key = key(image);
+                Long invalidatedAt = INVALIDATED.get(key);
+                if (invalidatedAt == null || invalidatedAt < notBefore) {
+                    CACHE.put(key, new Cached(rows, now));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Drops the cached records of an image after it's been written.
+     */
+    public static void invalidate(String image) {
+        long now = System.currentTimeMillis();
+        String key = key(image);
+        synchronized (CACHE) {
+            CACHE.remove(key);
+            // Moved to the end, so the oldest are always first
+            INVALIDATED.remove(key);
+            INVALIDATED.put(key, now);
+            Iterator<Long> oldest = INVALIDATED.values().iterator();
+            while (oldest.hasNext() && now - oldest.next() > TTL_MILLIS) {
+                oldest.remove();
+            }
+        }
+    }
+
+    /**
+     * The name as the Image column's collation compares it: case-insensitive, ignoring trailing spaces.
+     */
+    private static String key(String image) {
+        int end = image.length();
+        while (end > 0 && image.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return image.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    private static Map<String, List<Map<String, Object>>> load(List<String> images, Deadline deadline)
+            throws SQLException, DependencyException {
+        Map<String, List<Map<String, Object>>> loaded = new HashMap<>();
+        String columns = "s." + String.join(", s.", COLUMNS);
+
+        try (Connection conn = SqlHelper.connectForRead(deadline)) {
+            for (int start = 0; start < images.size(); start += IN_LIST_CHUNK) {
+                List<String> chunk = images.subList(start, Math.min(start + IN_LIST_CHUNK, images.size()));
+                // Rows come back tagged with the position of the name that matched. The column's collation decides
+                // what matches (usually case-insensitive, ignoring trailing spaces), so the Image it returns can
+                // differ from the name asked for.
+                StringBuilder names = new StringBuilder();
+                for (int i = 0; i < chunk.size(); i++) {
+                    names.append(i == 0 ? "(" : ", (").append(i).append(", ?)");
+                }
+                String query = "SELECT r.K, " + columns + " FROM (VALUES " + names + ") AS r (K, Image) " +
+                        "JOIN [dbo].[Signage] s ON s.Image = r.Image";
+
+                try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        stmt.setString(i + 1, chunk.get(i));
+                    }
+
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            Map<String, Object> row = new HashMap<>();
+                            for (String col : COLUMNS) {
+                                row.put(col, rs.getObject(col));
+                            }
+                            loaded.computeIfAbsent(chunk.get(rs.getInt("K")), k -> new ArrayList<>()).add(row);
+                        }
+                    }
+                }
+            }
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,202 @@
+package org.example.functions;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Metadata for a single row of the Signage table, as sent by the upload endpoints.
+ */
+public class SignageRecord {
+    public static final DateTimeFormatter INVENTORY_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final String INSERT_INTO = "INSERT INTO dbo.[Signage] (Street, Milepost, Latitude, Longitude, Location, Posts, Type, Height, " +
+            "Illuminated, Walkway, Ground_Treatment, Inventory_Date, Image, " +
+            "Inventory_Time, Condition, Defect, Weather_Condition, Vehicle_Speed, Road_Type, Image_Type, Created_By) " +
+            "OUTPUT INSERTED.ID ";
+    private static final String INSERT_SQL = INSERT_INTO +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    // UPDLOCK, HOLDLOCK keeps the range of the image locked until the insert is done, so two attempts can't
+    // both find it missing
+    private static final String INSERT_IF_ABSENT_SQL = INSERT_INTO +
+            "SELECT ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM dbo.[Signage] WITH (UPDLOCK, HOLDLOCK) WHERE Image = ?)";
+
+    public String street;
+    public Double milepost;
+    public Double lat;
+    public Double lon;
+    public String location;
+    public Integer posts;
+    public String type;
+    public Double height;
+    public Boolean illuminated;
+    public Boolean walkway;
+    public String groundTreatment;
+    public LocalDate inventoryDate;
+    public LocalTime inventoryTime;
+    public String condition;
+    public String defect;
+    public String weatherCondition;
+    public Integer vehicleSpeed;
+    public String roadType;
+    public String imageType;
+    public String createdBy;
+    // Set by insert
+    public Integer id;
+
+    /**
+     * Reads the metadata fields of an upload request. The image itself is not part of the record.
+     *
+     * @param data The parsed JSON metadata.
+     * @return The record, which may still be missing non-nullable fields (see {@link #hasRequiredFields()}).
+     */
+    public static SignageRecord fromJson(JsonNode data) {
+        SignageRecord record = new SignageRecord();
+        record.street = data.get("street") != null ? data.get("street").asText() : null;
+        record.milepost = data.hasNonNull("milepost") ? data.get("milepost").asDouble() : null;
+        record.lat = data.hasNonNull("lat") ? data.get("lat").asDouble() : null;
+        record.lon = data.hasNonNull("long") ? data.get("long").asDouble() : null;
+        record.location = data.get("location") != null ? data.get("location").asText() : null;
+        record.posts = data.hasNonNull("posts") ? data.get("posts").asInt() : null;
+        record.type = data.hasNonNull("type") ? data.get("type").asText() : null;
+        record.height = data.hasNonNull("height") ? data.get("height").asDouble() : null;
+        record.illuminated = data.get("illuminated") != null ? data.get("illuminated").asBoolean() : null;
+        record.walkway = data.get("walkway") != null ? data.get("walkway").asBoolean() : null;
+        record.groundTreatment = data.hasNonNull("ground_treatment") ? data.get("ground_treatment").asText() : null;
+        record.condition = data.hasNonNull("condition") ? data.get("condition").asText() : null;
+        record.defect = data.hasNonNull("defect") ? data.get("defect").asText() : null;
+        record.weatherCondition = data.hasNonNull("weather_condition") ? data.get("weather_condition").asText() : null;
+        record.vehicleSpeed = data.hasNonNull("vehicle_speed") ? data.get("vehicle_speed").asInt() : null;
+        record.roadType = data.hasNonNull("road_type") ? data.get("road_type").asText() : null;
+        record.imageType = data.hasNonNull("image_type") ? data.get("image_type").asText() : null;
+        record.createdBy = data.hasNonNull("created_by") ? data.get("created_by").asText() : null;
+
+        // Inventory_date split up into date and time
+        String dateStr = data.hasNonNull("inventory_date") ? data.get("inventory_date").asText() : "";
+        record.setInventoryDate(dateStr);
+
+        return record;
+    }
+
+    /**
+     * Splits an inventory timestamp ("yyyy-MM-dd HH:mm:ss") into the separate date and time columns.
+     * An empty value clears both.
+     */
+    public void setInventoryDate(String dateStr) {
+        if (!dateStr.isEmpty()) {
+            LocalDateTime dateParse = LocalDateTime.parse(dateStr, INVENTORY_DATE_FORMAT);
+
+            inventoryDate = dateParse.toLocalDate();
+            inventoryTime = dateParse.toLocalTime();
+        } else {
+            inventoryDate = null;
+            inventoryTime = null;
+        }
+    }
+
+    /**
+     * @return True if every non-nullable column (street, location, illuminated, walkway, inventory_date) is set.
+     */
+    public boolean hasRequiredFields() {
+        return street != null && !street.isEmpty()
+                && location != null && !location.isEmpty()
+                && illuminated != null && walkway != null
+                && inventoryDate != null && inventoryTime != null;
+    }
+
+    /**
+     * Name of the blob the image is stored under (also what fills the Image column in the database).
+     */
+    public String blobName() {
+        if (lat == null || lon == null) {
+            return String.format(
+                    "%s_%s_%s.png",
+                    street,
+                    inventoryDate.format(DateTimeFormatter.ofPattern("yyyyMMdd")),
+                    inventoryTime.format(DateTimeFormatter.ofPattern("HHmmss"))
+            );
+        }
+        return String.format("%f_%f.png", lat, lon);
+    }
+
+    /**
+     * Inserts the record into the Signage table, and sets its {@link #id}.
+     *
+     * @param conn Open connection to the database.
+     * @param image Name of the uploaded image blob.
+     * @return Number of rows inserted.
+     */
+    public int insert(Connection conn, String image) throws SQLException {
+        return insert(conn, image, false);
+    }
+
+    /**
+     * Inserts the record unless a Signage record already refers to the image, e.g. one inserted by an earlier
+     * attempt, and sets its {@link #id} if it was inserted.
+     *
+     * @param conn Open connection to the database.
+     * @param image Name of the uploaded image blob.
+     * @return Number of rows inserted: 0 if the image already had a record.
+     */
+    public int insertIfAbsent(Connection conn, String image) throws SQLException {
+        return insert(conn, image, true);
+    }
+
+    private int insert(Connection conn, String image, boolean ifAbsent) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(ifAbsent ? INSERT_IF_ABSENT_SQL : INSERT_SQL)) {
+            stmt.setString(1, street);
+            setNullable(stmt, 2, milepost, Types.DOUBLE);
+            setNullable(stmt, 3, lat, Types.DOUBLE);
+            setNullable(stmt, 4, lon, Types.DOUBLE);
+            stmt.setString(5, location);
+            setNullable(stmt, 6, posts, Types.INTEGER);
+            setNullable(stmt, 7, type, Types.NVARCHAR);
+            setNullable(stmt, 8, height, Types.DOUBLE);
+            stmt.setBoolean(9, illuminated);
+            stmt.setBoolean(10, walkway);
+            setNullable(stmt, 11, groundTreatment, Types.NVARCHAR);
+            stmt.setDate(12, java.sql.Date.valueOf(inventoryDate));
+            stmt.setString(13, image);
+            stmt.setTime(14, java.sql.Time.valueOf(inventoryTime));
+            setNullable(stmt, 15, condition, Types.NVARCHAR);
+            setNullable(stmt, 16, defect, Types.NVARCHAR);
+            setNullable(stmt, 17, weatherCondition, Types.NVARCHAR);
+            setNullable(stmt, 18, vehicleSpeed, Types.INTEGER);
+            setNullable(stmt, 19, roadType, Types.NVARCHAR);
+            setNullable(stmt, 20, imageType, Types.NVARCHAR);
+            setNullable(stmt, 21, createdBy, Types.NVARCHAR);
+            if (ifAbsent) {
+                stmt.setString(22, image);
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return 0;
+                }
+                id = rs.getInt(1);
+                return 1;
+            }
+        }
+    }
+
+    private static void setNullable(PreparedStatement stmt, int index, Object value, int sqlType) throws SQLException {
+        if (value == null) {
+            stmt.setNull(index, sqlType);
+        } else if (value instanceof Double) {
+            stmt.setDouble(index, (Double) value);
+        } else if (value instanceof Integer) {
+            stmt.setInt(index, (Integer) value);
+        } else {
+            stmt.setString(index, value.toString());
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package org.example.functions;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Counts of Signage records by Type, Condition, Defect and Road_Type, per SRI and milepost bucket, kept in memory
+ * so the supervisors' dashboard doesn't have to download the Signage table.
+ *
+ * A sign belongs to the SLD SRI Master segment whose SRI or Name matches its Street and whose milepost range
+ * contains its Milepost. Signs that don't fall in any segment are counted under {@link #UNASSIGNED}.
+ *
+ * The rollups are built from one scan of Signage, updated as UploadSignage inserts records, and rebuilt every
+ * "RollupRefreshMinutes" (default 15), which also picks up records written through other instances. The scan
+ * runs on the read replica if there is one, so a record inserted just before it may only be counted again at
+ * the next rebuild.
+ * Buckets are "RollupBucketMiles" (default 1) wide.
+ */
+public class SignageRollups {
+    public static final String UNASSIGNED = "UNASSIGNED";
+
+    private static final double BUCKET_MILES = Settings.getDouble("RollupBucketMiles", 1.0);
+    private static final long REFRESH_MILLIS = Settings.getInt("RollupRefreshMinutes", 15) * 60 * 1000L;
+    private static final long LOAD_TIMEOUT_MILLIS = 120 * 1000L;
+    private static final int FETCH_SIZE = 5000;
+    // Bucket of signs without a milepost, below any a milepost can fall in
+    private static final int NO_MILEPOST = Integer.MIN_VALUE;
+
+    private static final RefreshingSnapshot<SignageRollups> SNAPSHOT =
+            new RefreshingSnapshot<>("Signage rollups", REFRESH_MILLIS, LOAD_TIMEOUT_MILLIS, SignageRollups::load);
+
+    private static class Segment {
+        final String sri;
+        final double start;
+        final double end;
+
+        Segment(String sri, double start, double end) {
+            this.sri = sri;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Counts of one milepost bucket. Never changed once built; adding a sign builds a new bucket,
+     * so readers always see a consistent set of counts.
+     */
+    private static class Bucket {
+        static final Bucket EMPTY = new Bucket(0, Collections.emptyMap(), Collections.emptyMap(),
+                Collections.emptyMap(), Collections.emptyMap());
+
+        final int total;
+        final Map<String, Integer> type;
+        final Map<String, Integer> condition;
+        final Map<String, Integer> defect;
+        final Map<String, Integer> roadType;
+
+        Bucket(int total, Map<String, Integer> type, Map<String, Integer> condition, Map<String, Integer> defect,
+               Map<String, Integer> roadType) {
+            this.total = total;
+            this.type = type;
+            this.condition = condition;
+            this.defect = defect;
+            this.roadType = roadType;
+        }
+
+        Bucket plus(String type, String condition, String defect, String roadType) {
+            return new Bucket(total + 1, increment(this.type, type), increment(this.condition, condition),
+                    increment(this.defect, defect), increment(this.roadType, roadType));
+        }
+
+        private static Map<String, Integer> increment(Map<String, Integer> counts, String key) {
+            Map<String, Integer> result = new HashMap<>(counts);
+            result.merge(key != null ? key : "", 1, Integer::sum);
+            return Collections.unmodifiableMap(result);
+        }
+    }
+
+    /**
+     * Counts of one milepost bucket while the rollups are built, updated in place and frozen into a
+     * {@link Bucket} once the scan is done.
+     */
+    private static class Tally {
+        int total;
+        final Map<String, int[]> type = new HashMap<>();
+        final Map<String, int[]> condition = new HashMap<>();
+        final Map<String, int[]> defect = new HashMap<>();
+        final Map<String, int[]> roadType = new HashMap<>();
+
+        void add(String type, String condition, String defect, String roadType) {
+            total++;
+            increment(this.type, type);
+            increment(this.condition, condition);
+            increment(this.defect, defect);
+            increment(this.roadType, roadType);
+        }
+
+        Bucket freeze() {
+            return new Bucket(total, freeze(type), freeze(condition), freeze(defect), freeze(roadType));
+        }
+
+        private static void increment(Map<String, int[]> counts, String key) {
+            counts.computeIfAbsent(key != null ? key : "", k -> new int[1])[0]++;
+        }
+
+        private static Map<String, Integer> freeze(Map<String, int[]> counts) {
+            Map<String, Integer> result = new HashMap<>(counts.size() * 2);
+            counts.forEach((k, v) -> result.put(k, v[0]));
+            return Collections.unmodifiableMap(result);
+        }
+    }
+
+    /**
+     * The buckets of one SRI, plus their running total so whole-route queries don't have to add them up.
+     */
+    private static class Route {
+        final ConcurrentSkipListMap<Integer, Bucket> buckets = new ConcurrentSkipListMap<>();
+        final AtomicReference<Bucket> total = new AtomicReference<>(Bucket.EMPTY);
+    }
+
+    // Route (upper-cased SRI or Name) to its segments, sorted by start milepost
+    private final Map<String, Segment[]> segments;
+    // SRI to its counts
+    private final Map<String, Route> rollups = new ConcurrentHashMap<>();
+
+    private SignageRollups(Map<String, Segment[]> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * @param deadline How long to wait if the rollups haven't been built yet.
+     * @return The current rollups.
+     */
+    public static SignageRollups get(Deadline deadline) throws DependencyException {
+        return SNAPSHOT.get(deadline);
+    }
+
+    /**
+     * Starts building the rollups in the background if they haven't been built yet.
+     */
+    public static void preload() {
+        if (SNAPSHOT.peek() == null) {
+            SNAPSHOT.reload();
+        }
+    }
+
+    /**
+     * @return When the current rollups were built, in epoch milliseconds.
+     */
+    public static long loadedAt() {
+        return SNAPSHOT.loadedAt();
+    }
+
+    /**
+     * Counts a newly inserted record. Does nothing if the rollups haven't been built yet, since the build
+     * will read the record anyway.
+     */
+    public static void add(SignageRecord record) {
+        SignageRollups current = SNAPSHOT.peek();
+        if (current != null) {
+            current.count(record.street, record.milepost, record.type, record.condition, record.defect, record.roadType);
+        }
+    }
+
+    private static SignageRollups load(Deadline deadline)
+            throws SQLException, DependencyException, Bulkhead.RejectedException {
+        try (Bulkhead.Permit permit = Bulkhead.SQL_READ.acquire();
+             Connection conn = SqlHelper.connectForRead(deadline);
+             Statement stmt = conn.createStatement()) {
+            stmt.setFetchSize(FETCH_SIZE);
+
+            Map<String, List<Segment>> routes = new HashMap<>();
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT SRI, Name, Start_Milepost, End_Milepost FROM dbo.[SLD SRI Master]")) {
+                while (rs.next()) {
+                    String sri = rs.getString("SRI");
+                    Segment segment = new Segment(sri, rs.getDouble("Start_Milepost"), rs.getDouble("End_Milepost"));
+                    addRoute(routes, sri, segment);
+                    addRoute(routes, rs.getString("Name"), segment);
+                }
+            }
+
+            Map<String, Segment[]> segments = new HashMap<>();
+            for (Map.Entry<String, List<Segment>> route : routes.entrySet()) {
+                Segment[] sorted = route.getValue().toArray(new Segment[0]);
+                Arrays.sort(sorted, Comparator.comparingDouble(s -> s.start));
+                segments.put(route.getKey(), sorted);
+            }
+
+            SignageRollups rollups = new SignageRollups(segments);
+            // SRI to bucket to counts
+            Map<String, Map<Integer, Tally>> tallies = new HashMap<>();
+            try (ResultSet rs = stmt.executeQuery("SELECT Street, Milepost, CAST(Type AS nvarchar(max)) AS Type, " +
+                    "Condition, Defect, Road_Type FROM dbo.[Signage]")) {
+                while (rs.next()) {
+                    double value = rs.getDouble("Milepost");
+                    Double milepost = rs.wasNull() ? null : value;
+                    tallies.computeIfAbsent(rollups.sriOf(rs.getString("Street"), milepost), k -> new HashMap<>())
+                            .computeIfAbsent(bucketOf(milepost), k -> new Tally())
+                            .add(rs.getString("Type"), rs.getString("Condition"), rs.getString("Defect"),
+                                    rs.getString("Road_Type"));
+                }
+            }
+
+            for (Map.Entry<String, Map<Integer, Tally>> sri : tallies.entrySet()) {
+                Route route = new Route();
+                sri.getValue().forEach((bucket, tally) -> route.buckets.put(bucket, tally.freeze()));
+                route.total.set(sum(route.buckets.entrySet()));
+                rollups.rollups.put(sri.getKey(), route);
+            }
+            return rollups;
+        }
+    }
+
+    private static void addRoute(Map<String, List<Segment>> routes, String route, Segment segment) {
+        if (route != null && !route.trim().isEmpty()) {
+            routes.computeIfAbsent(route.trim().toUpperCase(Locale.ROOT), k -> new ArrayList<>()).add(segment);
+        }
+    }
+
+    private void count(String street, Double milepost, String type, String condition, String defect, String roadType) {
+        int bucket = bucketOf(milepost);
+        Route route = rollups.computeIfAbsent(sriOf(street, milepost), k -> new Route());
+        route.buckets.compute(bucket, (k, counts) -> (counts != null ? counts : Bucket.EMPTY)
+                .plus(type, condition, defect, roadType));
+        route.total.updateAndGet(counts -> counts.plus(type, condition, defect, roadType));
+    }
+
+    private String sriOf(String street, Double milepost) {
+        Segment segment = findSegment(street, milepost);
+        return segment != null ? segment.sri : UNASSIGNED;
+    }
+
+    private static int bucketOf(Double milepost) {
+        if (milepost == null) {
+            return NO_MILEPOST;
+        }
+        // Far enough below zero, the cast would land on the marker
+        return (int) Math.max(NO_MILEPOST + 1, Math.floor(milepost / BUCKET_MILES));
+    }
+
+    private Segment findSegment(String street, Double milepost) {
+        if (street == null || milepost == null) {
+            return null;
+        }
+        Segment[] route = segments.get(street.trim().toUpperCase(Locale.ROOT));
+        if (route == null) {
+            return null;
+        }
+
+        // Last segment starting at or before the milepost, then back over any overlapping ones
+        int low = 0;
+        int high = route.length - 1;
+        int candidate = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (route[mid].start <= milepost) {
+                candidate = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int i = candidate; i >= 0; i--) {
+            if (milepost <= route[i].end) {
+                return route[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sums the counts of the requested routes and milepost range.
+     *
+     * @param sri Route to report, or null for every route.
+     * @param from Start of the milepost range, or null for no lower bound.
+     * @param to End of the milepost range, or null for no upper bound.
+     * @param includeBuckets Whether to list the buckets of each route as well as its totals.
+     * @return One entry per route with its total and per-field counts.
+     */
+    public List<Map<String, Object>> query(String sri, Double from, Double to, boolean includeBuckets) {
+        List<Map<String, Object>> routes = new ArrayList<>();
+        List<String> names = new ArrayList<>(sri != null ? Collections.singleton(sri) : rollups.keySet());
+        Collections.sort(names);
+
+        // Signs without a milepost are only counted when there's no lower bound
+        int fromBucket = from != null ? bucketOf(from) : NO_MILEPOST;
+        int toBucket = to != null ? bucketOf(to) : Integer.MAX_VALUE;
+
+        for (String name : names) {
+            Route route = rollups.get(name);
+            if (route == null || fromBucket > toBucket) {
+                continue;
+            }
+
+            Bucket total;
+            Collection<Map.Entry<Integer, Bucket>> buckets;
+            if (from == null && to == null) {
+                total = route.total.get();
+                buckets = route.buckets.entrySet();
+            } else {
+                buckets = route.buckets.subMap(fromBucket, true, toBucket, true).entrySet();
+                total = sum(buckets);
+            }
+
+            if (total.total == 0) {
+                continue;
+            }
+
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("sri", name);
+            putCounts(item, total);
+            if (includeBuckets) {
+                List<Map<String, Object>> bucketList = new ArrayList<>();
+                for (Map.Entry<Integer, Bucket> entry : buckets) {
+                    Map<String, Object> bucket = new LinkedHashMap<>();
+                    boolean hasMilepost = entry.getKey() != NO_MILEPOST;
+                    bucket.put("start", hasMilepost ? entry.getKey() * BUCKET_MILES : null);
+                    bucket.put("end", hasMilepost ? (entry.getKey() + 1) * BUCKET_MILES : null);
+                    putCounts(bucket, entry.getValue());
+                    bucketList.add(bucket);
+                }
+                item.put("buckets", bucketList);
+            }
+            routes.add(item);
+        }
+        return routes;
+    }
+
+    private static Bucket sum(Collection<Map.Entry<Integer, Bucket>> buckets) {
+        int total = 0;
+        Map<String, Integer> type = new HashMap<>();
+        Map<String, Integer> condition = new HashMap<>();
+        Map<String, Integer> defect = new HashMap<>();
+        Map<String, Integer> roadType = new HashMap<>();
+        for (Map.Entry<Integer, Bucket> entry : buckets) {
+            Bucket bucket = entry.getValue();
+            total += bucket.total;
+            bucket.type.forEach((k, v) -> type.merge(k, v, Integer::sum));
+            bucket.condition.forEach((k, v) -> condition.merge(k, v, Integer::sum));
+            bucket.defect.forEach((k, v) -> defect.merge(k, v, Integer::sum));
+            bucket.roadType.forEach((k, v) -> roadType.merge(k, v, Integer::sum));
+        }
+        return new Bucket(total, type, condition, defect, roadType);
+    }
+
+    private static void putCounts(Map<String, Object> counts, Bucket bucket) {
+        counts.put("total", bucket.total);
+        counts.put("type", bucket.type);
+        counts.put("condition", bucket.condition);
+        counts.put("defect", bucket.defect);
+        counts.put("roadType", bucket.roadType);
+    }
+
+    public static double bucketMiles() {
+        return BUCKET_MILES;
+    }
+}
@@ -0,0 +1,521 @@
+package org.example.functions;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Typeahead search over the Street and Location of Signage records, answered from an in-memory trigram index
+ * so each keystroke doesn't query the database.
+ *
+ * Values are normalized (lower case, punctuation as spaces) and indexed by the trigrams of each word, plus
+ * its first one and two letters padded with spaces, so "mai" finds "Main St" and "Fountain Ave", while "m"
+ * only finds words starting with "m". A query matches a value if each of its words does; matches are ranked
+ * exact value, then value prefix, then word prefixes, then anywhere in the value.
+ *
+ * The index is built from one scan of Signage, and the records UploadSignage inserts are searched alongside
+ * it until the next rebuild. Every "SearchProbeSeconds" (default 60) the table's latest ID and row count are
+ * checked, and the index is rebuilt if they changed. Records are only ever added, so a rebuild only reads the
+ * ones past the index from the database, unless some of the indexed ones are gone, and indexes them again in
+ * memory along with the rows it already holds. Both queries run on the read replica if there is one.
+ */
+public class SignageSearch {
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MAX_LIMIT = 100;
+    public static final int STREET = 1;
+    public static final int LOCATION = 2;
+
+    private static final long PROBE_MILLIS = Settings.getInt("SearchProbeSeconds", 60) * 1000L;
+    private static final long LOAD_TIMEOUT_MILLIS = 120 * 1000L;
+    private static final int FETCH_SIZE = 5000;
+
+    private static final int EXACT = 100;
+    private static final int PREFIX = 80;
+    private static final int WORD_PREFIX = 60;
+    private static final int INFIX = 40;
+    // Marks trigrams taken from the start of a value, which never contain it otherwise
+    private static final String VALUE_START = "\u0001";
+
+    private static final RefreshingSnapshot<SignageSearch> SNAPSHOT = new RefreshingSnapshot<>("Signage search",
+            PROBE_MILLIS, LOAD_TIMEOUT_MILLIS, SignageSearch::load, SignageSearch::version);
+
+    // Records inserted through this instance that the index may not have yet, oldest first
+    private static final List<Row> RECENT = new CopyOnWriteArrayList<>();
+
+    private static class Row {
+        final int id;
+        final String image;
+        final String street;
+        final String location;
+        final String streetKey;
+        final String locationKey;
+
+        Row(int id, String image, String street, String location) {
+            this.id = id;
+            this.image = image;
+            this.street = street;
+            this.location = location;
+            this.streetKey = normalize(street);
+            this.locationKey = normalize(location);
+        }
+    }
+
+    private static class Hit {
+        final int score;
+        final int length;
+        final int id;
+        final String image;
+        final String street;
+        final String location;
+
+        Hit(int score, int length, int id, String image, String street, String location) {
+            this.score = score;
+            this.length = length;
+            this.id = id;
+            this.image = image;
+            this.street = street;
+            this.location = location;
+        }
+    }
+
+    // Best score, then shortest value; ties keep their order (newest first)
+    private static final Comparator<Hit> RANKING = Comparator.<Hit>comparingInt(h -> -h.score)
+            .thenComparingInt(h -> h.length);
+
+    // Rows, newest first
+    private final int[] ids;
+    private final String[] images;
+    private final String[] streets;
+    private final String[] locations;
+    private final int maxId;
+
+    // Distinct normalized values per field, each with the rows (newest first) that have it
+    private final String[] terms;
+    private final byte[] termFields;
+    private final int[][] termRows;
+    // Trigram to the terms containing it, ascending
+    private final Map<Long, int[]> postings;
+
+    private SignageSearch(int[] ids, String[] images, String[] streets, String[] locations, String[] terms,
+                          byte[] termFields, int[][] termRows, Map<Long, int[]> postings) {
+        this.ids = ids;
+        this.images = images;
+        this.streets = streets;
+        this.locations = locations;
+        this.maxId = ids.length > 0 ? ids[0] : 0;
+        this.terms = terms;
+        this.termFields = termFields;
+        this.termRows = termRows;
+        this.postings = postings;
+    }
+
+    /**
+     * @param deadline How long to wait if the index hasn't been built yet.
+     * @return The current index.
+     */
+    public static SignageSearch get(Deadline deadline) throws DependencyException {
+        return SNAPSHOT.get(deadline);
+    }
+
+    /**
+     * Starts building the index in the background if it hasn't been built yet.
+     */
+    public static void preload() {
+        if (SNAPSHOT.peek() == null) {
+            SNAPSHOT.reload();
+        }
+    }
+
+    /**
+     * @return When the current index was built, in epoch milliseconds.
+     */
+    public static long loadedAt() {
+        return SNAPSHOT.loadedAt();
+    }
+
+    /**
+     * Makes a newly inserted record searchable straight away.
+     *
+     * @param record The inserted record, with its ID set.
+     * @param image Name of its image blob.
+     */
+    public static void add(SignageRecord record, String image) {
+        if (record.id == null) {
+            return;
+        }
+        SignageSearch current = SNAPSHOT.peek();
+        if (current != null) {
+            RECENT.removeIf(row -> row.id <= current.maxId);
+        }
+        RECENT.add(new Row(record.id, image, record.street, record.location));
+    }
+
+    /**
+     * @param query What the user typed so far.
+     * @param fields {@link #STREET}, {@link #LOCATION}, or both.
+     * @param limit Maximum number of records to return.
+     * @return The matching records, best match first, with their ID, image, street, location and score.
+     */
+    public List<Map<String, Object>> search(String query, int fields, int limit) {
+        String q = normalize(query);
+        if (q.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String[] words = q.split(" ");
+
+        // Records newer than the index go first, so they stay ahead of equally good matches when sorted
+        List<Hit> hits = new ArrayList<>();
+        for (Row row : RECENT) {
+            if (row.id <= maxId) {
+                continue;
+            }
+            int street = (fields & STREET) != 0 ? score(row.streetKey, q, words) : 0;
+            int location = (fields & LOCATION) != 0 ? score(row.locationKey, q, words) : 0;
+            if (street > 0 || location > 0) {
+                int length = street >= location ? row.streetKey.length() : row.locationKey.length();
+                hits.add(new Hit(Math.max(street, location), length, row.id, row.image, row.street, row.location));
+            }
+        }
+        Collections.reverse(hits);
+
+        // Best tier first: values starting with the query, values where each word starts a word, then the rest.
+        // Terms are numbered shortest first, so each tier finds its best matches first and can stop at the limit.
+        // A record can match on both its street and its location; only its best match counts.
+        Set<Integer> seen = new HashSet<>();
+        collect(valuePrefixGrams(q, words), PREFIX, EXACT, q, words, fields, limit, seen, hits);
+        collect(wordPrefixGrams(words), WORD_PREFIX, WORD_PREFIX, q, words, fields, limit, seen, hits);
+        collect(infixGrams(words), INFIX, INFIX, q, words, fields, limit, seen, hits);
+
+        hits.sort(RANKING);
+        List<Map<String, Object>> results = new ArrayList<>(Math.min(limit, hits.size()));
+        for (Hit hit : hits.subList(0, Math.min(limit, hits.size()))) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("id", hit.id);
+            result.put("image", hit.image);
+            result.put("street", hit.street);
+            result.put("location", hit.location);
+            result.put("score", hit.score);
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Adds the rows of the terms that contain all the trigrams and score within the range, shortest term first,
+     * until there are enough rows.
+     */
+    private void collect(List<Long> grams, int minScore, int maxScore, String query, String[] words, int fields,
+                         int limit, Set<Integer> seen, List<Hit> hits) {
+        if (seen.size() >= limit) {
+            return;
+        }
+        int[][] lists = new int[grams.size()][];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.get(grams.get(i));
+            if (lists[i] == null) {
+                return;
+            }
+        }
+
+        // Walk the rarest trigram's terms, looking each up in the others
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+        int[] positions = new int[lists.length];
+        candidates:
+        for (int term : lists[0]) {
+            for (int i = 1; i < lists.length; i++) {
+                int found = Arrays.binarySearch(lists[i], positions[i], lists[i].length, term);
+                if (found < 0) {
+                    positions[i] = -found - 1;
+                    continue candidates;
+                }
+                positions[i] = found;
+            }
+
+            if ((termFields[term] & fields) == 0) {
+                continue;
+            }
+            int score = score(terms[term], query, words);
+            if (score < minScore || score > maxScore) {
+                continue;
+            }
+            for (int row : termRows[term]) {
+                if (seen.add(row)) {
+                    hits.add(new Hit(score, terms[term].length(), ids[row], images[row], streets[row], locations[row]));
+                    if (seen.size() >= limit) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return How well the normalized value matches the query, or 0 if some word of the query isn't in it.
+     */
+    private static int score(String value, String query, String[] words) {
+        if (value.isEmpty()) {
+            return 0;
+        }
+        boolean wordPrefixes = true;
+        for (String word : words) {
+            boolean wordPrefix = value.startsWith(word) || value.contains(" " + word);
+            // One and two letter words are only indexed at the start of words
+            if (!wordPrefix && (word.length() < 3 || !value.contains(word))) {
+                return 0;
+            }
+            wordPrefixes &= wordPrefix;
+        }
+
+        if (value.equals(query)) {
+            return EXACT;
+        }
+        if (value.startsWith(query)) {
+            return PREFIX;
+        }
+        return wordPrefixes ? WORD_PREFIX : INFIX;
+    }
+
+    /**
+     * @return The trigrams of a value starting with the query.
+     */
+    private static List<Long> valuePrefixGrams(String query, String[] words) {
+        List<Long> grams = infixGrams(words);
+        grams.add(query.length() == 1 ? gram(VALUE_START + VALUE_START + query, 0) : gram(VALUE_START + query, 0));
+        return grams;
+    }
+
+    /**
+     * @return The trigrams of a value in which each word of the query starts a word.
+     */
+    private static List<Long> wordPrefixGrams(String[] words) {
+        List<Long> grams = infixGrams(words);
+        for (String word : words) {
+            if (word.length() >= 3) {
+                grams.add(gram(" " + word, 0));
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * @return The trigrams of a value containing each word of the query: the first letters at the start of a
+     *         word for words shorter than three letters, else each trigram of the word anywhere.
+     */
+    private static List<Long> infixGrams(String[] words) {
+        List<Long> grams = new ArrayList<>();
+        for (String word : words) {
+            if (word.length() < 3) {
+                grams.add(gram(word.length() == 1 ? "  " + word : " " + word, 0));
+                continue;
+            }
+            for (int i = 0; i + 3 <= word.length(); i++) {
+                grams.add(gram(word, i));
+            }
+        }
+        return grams;
+    }
+
+    private static long gram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    /**
+     * Lower case, with anything but letters and digits turned into single spaces.
+     */
+    static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append(c);
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return result.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static Object version(Deadline deadline) throws SQLException, DependencyException, Bulkhead.RejectedException {
+        try (Bulkhead.Permit permit = Bulkhead.SQL_READ.acquire();
+             Connection conn = SqlHelper.connectForRead(deadline);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(ID), COUNT(*) FROM dbo.[Signage]")) {
+            rs.next();
+            return Arrays.asList(rs.getLong(1), rs.getLong(2));
+        }
+    }
+
+    private static SignageSearch load(Deadline deadline)
+            throws SQLException, DependencyException, Bulkhead.RejectedException {
+        List<Integer> ids = new ArrayList<>();
+        List<String> images = new ArrayList<>();
+        List<String> streets = new ArrayList<>();
+        List<String> locations = new ArrayList<>();
+
+        SignageSearch current = SNAPSHOT.peek();
+        boolean incremental;
+        try (Bulkhead.Permit permit = Bulkhead.SQL_READ.acquire();
+             Connection conn = SqlHelper.connectForRead(deadline)) {
+            incremental = current != null && countUpTo(conn, current.maxId) == current.ids.length;
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT ID, Street, Location, Image FROM dbo.[Signage] WHERE ID > ? ORDER BY ID DESC")) {
+                stmt.setFetchSize(FETCH_SIZE);
+                stmt.setInt(1, incremental ? current.maxId : Integer.MIN_VALUE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getInt("ID"));
+                        streets.add(rs.getString("Street"));
+                        locations.add(rs.getString("Location"));
+                        images.add(rs.getString("Image"));
+                    }
+                }
+            }
+        }
+
+        return incremental ? current.withNewer(ids, images, streets, locations)
+                : build(ids, images, streets, locations);
+    }
+
+    private static long countUpTo(Connection conn, int maxId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM dbo.[Signage] WHERE ID <= ?")) {
+            stmt.setInt(1, maxId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Builds a new index of rows newer than this index's, sorted newest first, followed by this index's rows.
+     * Only the database read is saved: the whole index is built again.
+     */
+    SignageSearch withNewer(List<Integer> newIds, List<String> newImages, List<String> newStreets,
+                            List<String> newLocations) {
+        if (newIds.isEmpty()) {
+            return this;
+        }
+        List<Integer> allIds = new ArrayList<>(newIds.size() + ids.length);
+        allIds.addAll(newIds);
+        for (int id : ids) {
+            allIds.add(id);
+        }
+        return build(allIds, concat(newImages, images), concat(newStreets, streets),
+                concat(newLocations, locations));
+    }
+
+    private static List<String> concat(List<String> first, String[] rest) {
+        List<String> all = new ArrayList<>(first.size() + rest.length);
+        all.addAll(first);
+        all.addAll(Arrays.asList(rest));
+        return all;
+    }
+
+    /**
+     * Indexes rows sorted newest first.
+     */
+    static SignageSearch build(List<Integer> ids, List<String> images, List<String> streets,
+                                       List<String> locations) {
+        // Distinct values of each field, with their rows
+        List<String> terms = new ArrayList<>();
+        List<Byte> termFields = new ArrayList<>();
+        List<List<Integer>> termRows = new ArrayList<>();
+        Map<String, Integer> streetTerms = new HashMap<>();
+        Map<String, Integer> locationTerms = new HashMap<>();
+        for (int row = 0; row < ids.size(); row++) {
+            addTerm(terms, termFields, termRows, streetTerms, STREET, normalize(streets.get(row)), row);
+            addTerm(terms, termFields, termRows, locationTerms, LOCATION, normalize(locations.get(row)), row);
+        }
+
+        // Shortest first, which is the order search ranks equally good matches in
+        Integer[] order = new Integer[terms.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(term -> terms.get(term).length()));
+
+        String[] sortedTerms = new String[order.length];
+        byte[] fields = new byte[order.length];
+        int[][] rows = new int[order.length][];
+        Map<Long, List<Integer>> grams = new HashMap<>();
+        for (int term = 0; term < order.length; term++) {
+            String value = terms.get(order[term]);
+            sortedTerms[term] = value;
+            fields[term] = termFields.get(order[term]);
+            rows[term] = toArray(termRows.get(order[term]));
+
+            addGram(grams, gram(VALUE_START + VALUE_START + value, 0), term);
+            if (value.length() >= 2) {
+                addGram(grams, gram(VALUE_START + value, 0), term);
+            }
+            for (String word : value.split(" ")) {
+                String padded = "  " + word;
+                for (int i = 0; i + 3 <= padded.length(); i++) {
+                    addGram(grams, gram(padded, i), term);
+                }
+            }
+        }
+
+        Map<Long, int[]> postings = new HashMap<>(grams.size() * 2);
+        for (Map.Entry<Long, List<Integer>> entry : grams.entrySet()) {
+            postings.put(entry.getKey(), toArray(entry.getValue()));
+        }
+
+        return new SignageSearch(toArray(ids), images.toArray(new String[0]), streets.toArray(new String[0]),
+                locations.toArray(new String[0]), sortedTerms, fields, rows, postings);
+    }
+
+    private static void addGram(Map<Long, List<Integer>> grams, long gram, int term) {
+        List<Integer> list = grams.computeIfAbsent(gram, k -> new ArrayList<>());
+        // Terms are added in order, so a repeated trigram is always the last one added
+        if (list.isEmpty() || list.get(list.size() - 1) != term) {
+            list.add(term);
+        }
+    }
+
+    private static void addTerm(List<String> terms, List<Byte> termFields, List<List<Integer>> termRows,
+                                Map<String, Integer> fieldTerms, int field, String value, int row) {
+        if (value.isEmpty()) {
+            return;
+        }
+        Integer term = fieldTerms.get(value);
+        if (term == null) {
+            term = terms.size();
+            fieldTerms.put(value, term);
+            terms.add(value);
+            termFields.add((byte) field);
+            termRows.add(new ArrayList<>());
+        }
+        termRows.get(term).add(row);
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,246 @@
+package org.example.functions;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opens database connections bound to a request's {@link Deadline}, behind the SQL circuit breaker.
+ *
+ * Reads that can be a little stale can use {@link #connectForRead}, which goes to a read-only replica when one is
+ * configured: "SqlReadConnectionString", or "SqlReadOnlyIntent" = "true" to add ApplicationIntent=ReadOnly to
+ * "SqlConnectionString" and reach the readable secondary of the same database. Replica reads are only used while
+ * the replica is known to be at most "SqlReadMaxStalenessSeconds" (default 30) behind; the lag is measured on the
+ * primary every "SqlReadLagCheckSeconds" (default 15) with "SqlReadLagQuery", which by default reads the
+ * availability group and geo-replication DMVs and needs VIEW DATABASE STATE. A staleness of 0 skips the check, so
+ * replica reads can be any amount behind. Otherwise, and whenever the replica can't be reached, reads go to the
+ * primary. A lag measurement that fails is retried after 1 s, then less and less often, up to the check interval.
+ */
+public class SqlHelper {
+    // setNetworkTimeout only uses the executor to abort the connection, which the driver does on its own thread
+    private static final Executor ABORT_EXECUTOR = Runnable::run;
+
+    private static final long MAX_STALENESS_MILLIS = Settings.getInt("SqlReadMaxStalenessSeconds", 30) * 1000L;
+    private static final long LAG_CHECK_MILLIS = Settings.getInt("SqlReadLagCheckSeconds", 15) * 1000L;
+    private static final String LAG_QUERY = Settings.getString("SqlReadLagQuery", "SELECT MAX(Lag) FROM (" +
+            "SELECT secondary_lag_seconds AS Lag FROM sys.dm_database_replica_states " +
+            "WHERE is_primary_replica = 0 AND database_id = DB_ID() " +
+            "UNION ALL SELECT replication_lag_sec FROM sys.dm_geo_replication_link_status) AS l");
+    // Seconds behind the primary, or -1 if unknown
+    private static final RefreshingSnapshot<Long> REPLICA_LAG = new RefreshingSnapshot<>("Replica lag",
+            LAG_CHECK_MILLIS, 5000, SqlHelper::measureReplicaLag);
+
+    private static final AtomicLong REPLICA_READS = new AtomicLong();
+    private static final AtomicLong STALE_FALLBACKS = new AtomicLong();
+    private static final AtomicLong FAILED_FALLBACKS = new AtomicLong();
+
+    /**
+     * Opens a connection whose login and every later network read give up when the deadline passes.
+     *
+     * @param connectionString JDBC connection string.
+     * @param deadline The request's deadline.
+     * @throws DependencyException If the database is unreachable, too slow, or its breaker is open.
+     * @throws SQLException For any other connection error.
+     */
+    public static Connection connect(String connectionString, Deadline deadline) throws SQLException, DependencyException {
+        return connect(connectionString, deadline, CircuitBreaker.SQL);
+    }
+
+    /**
+     * Opens a connection for reads that may be up to "SqlReadMaxStalenessSeconds" behind, on the read replica if
+     * there is one and it's caught up, else on the primary. Never use it for writes, or for reads that must see
+     * a write just made. Only connection failures count against the replica's breaker; {@link #failure} still
+     * counts query failures against the primary's.
+     *
+     * @param deadline The request's deadline.
+     * @throws DependencyException If the primary is unreachable, too slow, or its breaker is open.
+     * @throws SQLException For any other connection error.
+     */
+    public static Connection connectForRead(Deadline deadline) throws SQLException, DependencyException {
+        String primary = System.getenv("SqlConnectionString");
+        String replica = readConnectionString(primary);
+        if (replica != null) {
+            if (!replicaFresh()) {
+                STALE_FALLBACKS.incrementAndGet();
+            } else {
+                try {
+                    Connection conn = connect(replica, deadline, CircuitBreaker.SQL_REPLICA);
+                    REPLICA_READS.incrementAndGet();
+                    return conn;
+                } catch (SQLException | DependencyException e) {
+                    // The primary gets whatever is left of the deadline
+                    FAILED_FALLBACKS.incrementAndGet();
+                }
+            }
+        }
+        return connect(primary, deadline, CircuitBreaker.SQL);
+    }
+
+    /**
+     * @return How far behind a read from {@link #connectForRead} may be, in milliseconds: 0 without a replica,
+     * Long.MAX_VALUE if its lag isn't checked.
+     */
+    public static long readStalenessMillis() {
+        if (readConnectionString(System.getenv("SqlConnectionString")) == null) {
+            return 0;
+        }
+        return MAX_STALENESS_MILLIS > 0 ? MAX_STALENESS_MILLIS : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return How reads were routed since the instance started.
+     */
+    public static Map<String, Object> readRoutingMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("replicaConfigured", readConnectionString(System.getenv("SqlConnectionString")) != null);
+        Long lag = REPLICA_LAG.peek();
+        metrics.put("replicaLagSeconds", lag != null && lag >= 0 ? lag : null);
+        metrics.put("replicaReads", REPLICA_READS.get());
+        metrics.put("staleFallbacks", STALE_FALLBACKS.get());
+        metrics.put("failedFallbacks", FAILED_FALLBACKS.get());
+        return metrics;
+    }
+
+    private static Connection connect(String connectionString, Deadline deadline, CircuitBreaker breaker)
+            throws SQLException, DependencyException {
+        breaker.check();
+        deadline.check(breaker.dependency);
+
+        Connection conn = null;
+        try {
+            conn = DriverManager.getConnection(withLoginTimeout(connectionString, deadline));
+            conn.setNetworkTimeout(ABORT_EXECUTOR, (int) Math.min(Integer.MAX_VALUE, Math.max(1, deadline.remainingMillis())));
+        } catch (SQLException e) {
+            // Opened, but couldn't be given a timeout, so it's never handed out
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+            }
+            DependencyException failure = failure(e, deadline, breaker);
+            if (failure != null) {
+                throw failure;
+            }
+            throw e;
+        }
+
+        breaker.recordSuccess();
+        return conn;
+    }
+
+    /**
+     * @return The replica's connection string, or null if reads aren't routed to one.
+     */
+    private static String readConnectionString(String primary) {
+        String replica = System.getenv("SqlReadConnectionString");
+        if (replica != null && !replica.isEmpty()) {
+            return replica;
+        }
+        if (primary != null && Settings.getBoolean("SqlReadOnlyIntent", false)) {
+            return primary.replaceAll(";\\s*$", "") + ";ApplicationIntent=ReadOnly";
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the replica's last measured lag is within the allowed staleness. Never waits: until the
+     * first measurement, reads go to the primary.
+     */
+    private static boolean replicaFresh() {
+        if (MAX_STALENESS_MILLIS <= 0) {
+            return true;
+        }
+        try {
+            // Starts a new measurement when the last one is old, unless the last one failed too recently
+            REPLICA_LAG.get(Deadline.after(0));
+        } catch (DependencyException e) {
+            // Not measured yet
+        }
+        Long lag = REPLICA_LAG.peek();
+        if (lag == null) {
+            return false;
+        }
+        // A measurement that couldn't be repeated for a while says nothing about the replica now
+        boolean recent = System.currentTimeMillis() - REPLICA_LAG.loadedAt() < 4 * LAG_CHECK_MILLIS;
+        return recent && lag >= 0 && lag * 1000 <= MAX_STALENESS_MILLIS;
+    }
+
+    private static Long measureReplicaLag(Deadline deadline) throws SQLException, DependencyException, Bulkhead.RejectedException {
+        try (Bulkhead.Permit permit = Bulkhead.SQL_READ.acquire();
+             Connection conn = connect(System.getenv("SqlConnectionString"), deadline);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(LAG_QUERY)) {
+            // No row or NULL: no replica the primary knows about, so its lag is unknown
+            if (!rs.next()) {
+                return -1L;
+            }
+            long lag = rs.getLong(1);
+            return rs.wasNull() ? -1L : lag;
+        }
+    }
+
+    /**
+     * Sorts out SQL errors that mean the database is unhealthy (connection failures and timeouts) from errors
+     * that are about the statement itself, and counts the former against the breaker.
+     *
+     * @param e The error.
+     * @param deadline The request's deadline.
+     * @return The error as a timeout or unavailable dependency, or null if it's an ordinary SQL error.
+     */
+    public static DependencyException failure(SQLException e, Deadline deadline) {
+        return failure(e, deadline, CircuitBreaker.SQL);
+    }
+
+    private static DependencyException failure(SQLException e, Deadline deadline, CircuitBreaker breaker) {
+        String state = e.getSQLState() != null ? e.getSQLState() : "";
+        boolean timedOut = e instanceof SQLTimeoutException || state.equals("HYT00") || state.equals("HYT01")
+                || deadline.expired();
+        // Class 08 is "connection exception"
+        boolean unreachable = e instanceof SQLTransientConnectionException || state.startsWith("08");
+
+        if (!timedOut && !unreachable) {
+            return null;
+        }
+
+        breaker.recordFailure();
+        if (timedOut) {
+            return DependencyException.timedOut(breaker.dependency, e);
+        }
+        return DependencyException.unavailable(breaker.dependency, 1, e);
+    }
+
+    /**
+     * Caps the driver's login timeout (whole seconds) at what's left of the deadline.
+     */
+    static String withLoginTimeout(String connectionString, Deadline deadline) {
+        long seconds = Math.max(1, (deadline.remainingMillis() + 999) / 1000);
+
+        StringBuilder result = new StringBuilder();
+        for (String property : connectionString.split(";")) {
+            int eq = property.indexOf('=');
+            if (eq > 0 && property.substring(0, eq).trim().equalsIgnoreCase("loginTimeout")) {
+                try {
+                    seconds = Math.min(seconds, Math.max(1, Long.parseLong(property.substring(eq + 1).trim())));
+                } catch (NumberFormatException e) {
+                    // Ignored, replaced below
+                }
+                continue;
+            }
+            if (result.length() > 0) {
+                result.append(';');
+            }
+            result.append(property);
+        }
+        return result.append(";loginTimeout=").append(seconds).toString();
+    }
+}
@@ -0,0 +1,358 @@
+package org.example.functions;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The parent chain of every SLD SRI Master segment, for converting a milepost on one route into the milepost
+ * on its parent (and grandparent, ...) route without walking the chain one query at a time.
+ *
+ * Each segment maps its Start_Milepost..End_Milepost range linearly onto Parent_Start_Milepost..Parent_End_Milepost
+ * of its Parent_SRI. Those maps compose, so for every segment the map straight to each of its ancestors is worked
+ * out once when the table is loaded. Segments are kept in flat primitive arrays indexed by row, and ancestor
+ * paths in one shared array with an offset per row.
+ *
+ * The table is probed every "SriProbeSeconds" (default 60) and reloaded only when its latest Last_Update_Date or
+ * row count changed. Both run on the read replica if there is one.
+ */
+public class SriHierarchy {
+    private static final long PROBE_MILLIS = Settings.getInt("SriProbeSeconds", 60) * 1000L;
+    private static final long LOAD_TIMEOUT_MILLIS = 60 * 1000L;
+    // Deeper chains than this are treated as a cycle in the data
+    private static final int MAX_DEPTH = 64;
+    // Mileposts are stored to the thousandth, so allow for rounding at segment ends
+    private static final double EPSILON = 1e-6;
+
+    private static final RefreshingSnapshot<SriHierarchy> SNAPSHOT = new RefreshingSnapshot<>("SRI hierarchy",
+            PROBE_MILLIS, LOAD_TIMEOUT_MILLIS, SriHierarchy::load, SriHierarchy::version);
+
+    /**
+     * A milepost on a route.
+     */
+    public static class Point {
+        public final String sri;
+        public final String name;
+        public final double milepost;
+
+        Point(String sri, String name, double milepost) {
+            this.sri = sri;
+            this.name = name;
+            this.milepost = milepost;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("sri", sri);
+            map.put("name", name);
+            map.put("milepost", milepost);
+            return map;
+        }
+    }
+
+    // Per segment, indexed by row
+    private final String[] sri;
+    private final String[] name;
+    private final double[] start;
+    private final double[] end;
+    private final int[] parent;
+
+    // Ancestors of row r are at pathOffset[r] until pathOffset[r + 1], nearest first. Milepost on the
+    // ancestor = pathScale * milepost on r + pathShift.
+    private final int[] pathOffset;
+    private final int[] pathRow;
+    private final double[] pathScale;
+    private final double[] pathShift;
+
+    // SRI to its rows, sorted by start milepost
+    private final Map<String, int[]> rowsBySri;
+
+    private SriHierarchy(String[] sri, String[] name, double[] start, double[] end, int[] parent,
+                         double[] scale, double[] shift, Map<String, int[]> rowsBySri) {
+        this.sri = sri;
+        this.name = name;
+        this.start = start;
+        this.end = end;
+        this.parent = parent;
+        this.rowsBySri = rowsBySri;
+
+        int rows = sri.length;
+        pathOffset = new int[rows + 1];
+        int total = 0;
+        for (int r = 0; r < rows; r++) {
+            pathOffset[r] = total;
+            total += depth(r);
+        }
+        pathOffset[rows] = total;
+
+        pathRow = new int[total];
+        pathScale = new double[total];
+        pathShift = new double[total];
+        for (int r = 0; r < rows; r++) {
+            double a = 1;
+            double b = 0;
+            int at = pathOffset[r];
+            for (int p = r; at < pathOffset[r + 1]; p = parent[p], at++) {
+                // Compose the map from r to p with the map from p to its parent
+                a = scale[p] * a;
+                b = scale[p] * b + shift[p];
+                pathRow[at] = parent[p];
+                pathScale[at] = a;
+                pathShift[at] = b;
+            }
+        }
+    }
+
+    private int depth(int row) {
+        int depth = 0;
+        for (int p = parent[row]; p >= 0 && depth < MAX_DEPTH; p = parent[p]) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * @param deadline How long to wait if the hierarchy hasn't been loaded yet.
+     * @return The current hierarchy.
+     */
+    public static SriHierarchy get(Deadline deadline) throws DependencyException {
+        return SNAPSHOT.get(deadline);
+    }
+
+    /**
+     * Converts a milepost on a route into the milepost on one of its ancestors.
+     *
+     * @param sri Route of the milepost.
+     * @param milepost The milepost.
+     * @param target Ancestor route to convert to, or null for the top of the chain.
+     * @return The milepost on the target, or null if the milepost isn't on any segment of the route
+     *         or the target isn't one of its ancestors.
+     */
+    public Point translate(String sri, double milepost, String target) {
+        int row = findRow(sri, milepost);
+        if (row < 0) {
+            return null;
+        }
+
+        List<Point> ancestors = ancestors(row, milepost);
+        if (target == null) {
+            return ancestors.isEmpty() ? point(row, milepost) : ancestors.get(ancestors.size() - 1);
+        }
+        if (target.equalsIgnoreCase(this.sri[row])) {
+            return point(row, milepost);
+        }
+        for (Point ancestor : ancestors) {
+            if (target.equalsIgnoreCase(ancestor.sri)) {
+                return ancestor;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param sri Route of the milepost.
+     * @param milepost The milepost.
+     * @return The milepost on each ancestor route, nearest first, or null if the milepost isn't on any segment
+     *         of the route.
+     */
+    public List<Point> ancestors(String sri, double milepost) {
+        int row = findRow(sri, milepost);
+        return row < 0 ? null : ancestors(row, milepost);
+    }
+
+    /**
+     * @return The first milepost of a route, for asking about its ancestors without a specific milepost,
+     *         or null if the route doesn't exist.
+     */
+    public Double startOf(String sri) {
+        int[] rows = rowsBySri.get(sri.toUpperCase(Locale.ROOT));
+        return rows != null ? start[rows[0]] : null;
+    }
+
+    private List<Point> ancestors(int row, double milepost) {
+        List<Point> ancestors = new ArrayList<>(pathOffset[row + 1] - pathOffset[row]);
+        for (int at = pathOffset[row]; at < pathOffset[row + 1]; at++) {
+            int ancestor = pathRow[at];
+            double translated = pathScale[at] * milepost + pathShift[at];
+
+            if (!contains(ancestor, translated)) {
+                // The child range spans more than one segment of this ancestor, so the precomputed path
+                // doesn't apply past here. Carry on one level at a time from the last good point.
+                int from = at == pathOffset[row] ? row : pathRow[at - 1];
+                double fromMilepost = at == pathOffset[row] ? milepost
+                        : pathScale[at - 1] * milepost + pathShift[at - 1];
+                walk(from, fromMilepost, ancestors);
+                return ancestors;
+            }
+            ancestors.add(point(ancestor, translated));
+        }
+        return ancestors;
+    }
+
+    /**
+     * Slow path: follows the chain segment by segment, looking up the segment of each parent again.
+     */
+    private void walk(int row, double milepost, List<Point> ancestors) {
+        for (int depth = ancestors.size(); depth < MAX_DEPTH && parent[row] >= 0; depth++) {
+            int p = parent[row];
+            int onPath = pathOffset[row];
+            double translated = pathScale[onPath] * milepost + pathShift[onPath];
+            int next = findRow(sri[p], translated);
+            if (next < 0) {
+                return;
+            }
+            ancestors.add(point(next, translated));
+            row = next;
+            milepost = translated;
+        }
+    }
+
+    private Point point(int row, double milepost) {
+        return new Point(sri[row], name[row], milepost);
+    }
+
+    private boolean contains(int row, double milepost) {
+        return milepost >= Math.min(start[row], end[row]) - EPSILON && milepost <= Math.max(start[row], end[row]) + EPSILON;
+    }
+
+    /**
+     * @return The segment of the route containing the milepost, or -1.
+     */
+    private int findRow(String route, double milepost) {
+        if (route == null) {
+            return -1;
+        }
+        int[] rows = rowsBySri.get(route.toUpperCase(Locale.ROOT));
+        if (rows == null) {
+            return -1;
+        }
+
+        // Last segment starting at or before the milepost; where segments meet, the later one wins
+        int low = 0;
+        int high = rows.length - 1;
+        int candidate = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (start[rows[mid]] <= milepost + EPSILON) {
+                candidate = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int i = candidate; i >= 0; i--) {
+            if (contains(rows[i], milepost)) {
+                return rows[i];
+            }
+        }
+        return -1;
+    }
+
+    private static Object version(Deadline deadline) throws SQLException, DependencyException, Bulkhead.RejectedException {
+        try (Bulkhead.Permit permit = Bulkhead.SQL_READ.acquire();
+             Connection conn = SqlHelper.connectForRead(deadline);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(Last_Update_Date), COUNT(*) FROM dbo.[SLD SRI Master]")) {
+            rs.next();
+            Timestamp latest = rs.getTimestamp(1);
+            return Arrays.asList(latest != null ? latest.getTime() : 0L, latest != null ? latest.getNanos() : 0,
+                    rs.getLong(2));
+        }
+    }
+
+    private static SriHierarchy load(Deadline deadline)
+            throws SQLException, DependencyException, Bulkhead.RejectedException {
+        List<String> sri = new ArrayList<>();
+        List<String> name = new ArrayList<>();
+        List<double[]> ranges = new ArrayList<>();
+        List<String> parentSri = new ArrayList<>();
+
+        try (Bulkhead.Permit permit = Bulkhead.SQL_READ.acquire();
+             Connection conn = SqlHelper.connectForRead(deadline);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT SRI, Name, Start_Milepost, End_Milepost, Parent_SRI, " +
+                     "Parent_Start_Milepost, Parent_End_Milepost FROM dbo.[SLD SRI Master] WHERE SRI IS NOT NULL")) {
+            while (rs.next()) {
+                sri.add(rs.getString("SRI").trim());
+                name.add(rs.getString("Name"));
+                String parentName = rs.getString("Parent_SRI");
+                double parentStart = rs.getDouble("Parent_Start_Milepost");
+                boolean hasParent = parentName != null && !parentName.trim().isEmpty() && !rs.wasNull();
+                ranges.add(new double[]{rs.getDouble("Start_Milepost"), rs.getDouble("End_Milepost"),
+                        parentStart, rs.getDouble("Parent_End_Milepost")});
+                parentSri.add(hasParent ? parentName.trim() : null);
+            }
+        }
+        return build(sri, name, ranges, parentSri);
+    }
+
+    /**
+     * @param sri SRI of each segment.
+     * @param name Name of each segment.
+     * @param ranges Start_Milepost, End_Milepost, Parent_Start_Milepost and Parent_End_Milepost of each segment.
+     * @param parentSri Parent_SRI of each segment, or null for a top-level one.
+     */
+    static SriHierarchy build(List<String> sri, List<String> name, List<double[]> ranges, List<String> parentSri) {
+        int rows = sri.size();
+        double[] start = new double[rows];
+        double[] end = new double[rows];
+        for (int r = 0; r < rows; r++) {
+            start[r] = ranges.get(r)[0];
+            end[r] = ranges.get(r)[1];
+        }
+
+        Map<String, List<Integer>> grouped = new HashMap<>();
+        for (int r = 0; r < rows; r++) {
+            grouped.computeIfAbsent(sri.get(r).toUpperCase(Locale.ROOT), k -> new ArrayList<>()).add(r);
+        }
+        Map<String, int[]> rowsBySri = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : grouped.entrySet()) {
+            int[] sorted = entry.getValue().stream()
+                    .sorted((x, y) -> Double.compare(start[x], start[y]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            rowsBySri.put(entry.getKey(), sorted);
+        }
+
+        // Map of each row onto its parent, and the parent segment that holds the middle of that range
+        int[] parent = new int[rows];
+        double[] scale = new double[rows];
+        double[] shift = new double[rows];
+        for (int r = 0; r < rows; r++) {
+            parent[r] = -1;
+            double[] range = ranges.get(r);
+            if (parentSri.get(r) == null) {
+                continue;
+            }
+
+            double length = range[1] - range[0];
+            scale[r] = length != 0 ? (range[3] - range[2]) / length : 0;
+            shift[r] = range[2] - scale[r] * range[0];
+
+            int[] candidates = rowsBySri.get(parentSri.get(r).toUpperCase(Locale.ROOT));
+            if (candidates == null) {
+                continue;
+            }
+            double middle = (range[2] + range[3]) / 2;
+            for (int candidate : candidates) {
+                if (candidate != r && middle >= Math.min(start[candidate], end[candidate]) - EPSILON
+                        && middle <= Math.max(start[candidate], end[candidate]) + EPSILON) {
+                    parent[r] = candidate;
+                    break;
+                }
+            }
+        }
+
+        return new SriHierarchy(sri.toArray(new String[0]), name.toArray(new String[0]), start, end, parent,
+                scale, shift, rowsBySri);
+    }
+}
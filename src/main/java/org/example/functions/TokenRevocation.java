@@ -0,0 +1,232 @@
+package org.example.functions;
+
+import io.jsonwebtoken.Claims;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Revoked tokens, held in memory so authenticated requests can be checked without a query.
+ *
+ * A token is revoked by its ID ("jti"), as on logout, or together with every other token of its user issued
+ * before a cutoff, as when a device is compromised. Both are stored by sql/042_token_revocation.sql and
+ * reloaded from there every "RevocationRefreshSeconds" (default 30) when they changed, so a revocation made on
+ * another instance takes effect here within that time. Revocations made on this instance take effect at once.
+ *
+ * If the revocations haven't been checked for "RevocationMaxStaleSeconds" (default four times the refresh
+ * interval), because the database can't be reached or the instance sat idle, requests wait for a check, and are
+ * refused if it fails: a token revoked meanwhile must not go on working.
+ *
+ * Revoked IDs are only kept until the token would have expired anyway. Tokens issued before this change have
+ * no ID or issue time: they can only be revoked by a cutoff, which revokes all of them.
+ */
+public class TokenRevocation {
+    private static final int REFRESH_SECONDS = Settings.getInt("RevocationRefreshSeconds", 30);
+    private static final long PROBE_MILLIS = REFRESH_SECONDS * 1000L;
+    private static final long MAX_STALE_MILLIS = Settings.getInt("RevocationMaxStaleSeconds", 4 * REFRESH_SECONDS) * 1000L;
+    private static final long LOAD_TIMEOUT_MILLIS = 30 * 1000L;
+
+    private static final RefreshingSnapshot<TokenRevocation> SNAPSHOT = new RefreshingSnapshot<>("Token revocations",
+            PROBE_MILLIS, LOAD_TIMEOUT_MILLIS, TokenRevocation::load, TokenRevocation::version);
+
+    // Revocations made on this instance, until they've expired or been replaced by a newer cutoff
+    private static final Map<String, Long> LOCAL_TOKEN_IDS = new ConcurrentHashMap<>();
+    private static final Map<Integer, Long> LOCAL_CUTOFFS = new ConcurrentHashMap<>();
+
+    private static final String HAS_TABLES = "SELECT CASE WHEN OBJECT_ID(N'dbo.[Revoked Token]') IS NOT NULL " +
+            "AND OBJECT_ID(N'dbo.[User Token Cutoff]') IS NOT NULL THEN 1 ELSE 0 END";
+
+    // Also clears out a few tokens that have expired since they were revoked
+    private static final String REVOKE_TOKEN_SQL = "IF NOT EXISTS (SELECT 1 FROM dbo.[Revoked Token] WHERE Token_ID = ?) " +
+            "INSERT INTO dbo.[Revoked Token] (Token_ID, User_ID, Expires_At) " +
+            "VALUES (?, ?, DATEADD(SECOND, ?, '1970-01-01')); " +
+            "DELETE TOP (100) FROM dbo.[Revoked Token] WHERE Expires_At < SYSUTCDATETIME()";
+
+    private static final String REVOKE_USER_SQL = "MERGE dbo.[User Token Cutoff] WITH (HOLDLOCK) AS c " +
+            "USING (SELECT ? AS User_ID, DATEADD(SECOND, ?, '1970-01-01') AS Not_Before) AS n " +
+            "ON c.User_ID = n.User_ID " +
+            "WHEN MATCHED THEN UPDATE SET Not_Before = n.Not_Before, Updated_At = SYSUTCDATETIME() " +
+            "WHEN NOT MATCHED THEN INSERT (User_ID, Not_Before) VALUES (n.User_ID, n.Not_Before);";
+
+    private final Set<String> tokenIds;
+    // Epoch seconds; tokens of the user issued before this are revoked
+    private final Map<Integer, Long> cutoffs;
+
+    private TokenRevocation(Set<String> tokenIds, Map<Integer, Long> cutoffs) {
+        this.tokenIds = tokenIds;
+        this.cutoffs = cutoffs;
+    }
+
+    /**
+     * @param deadline How long to wait if the revocations haven't been loaded, or checked for too long.
+     * @return The current revocations.
+     * @throws DependencyException If they couldn't be loaded or checked in time.
+     */
+    public static TokenRevocation get(Deadline deadline) throws DependencyException {
+        return SNAPSHOT.get(deadline, MAX_STALE_MILLIS);
+    }
+
+    /**
+     * @param claims Claims of a token with a valid signature.
+     * @return Whether the token has been revoked.
+     */
+    public boolean isRevoked(Claims claims) {
+        String id = claims.getId();
+        if (id != null && (tokenIds.contains(id) || LOCAL_TOKEN_IDS.containsKey(id))) {
+            return true;
+        }
+
+        Integer userId = userId(claims);
+        if (userId == null) {
+            return false;
+        }
+        Long cutoff = cutoffs.get(userId);
+        Long localCutoff = LOCAL_CUTOFFS.get(userId);
+        if (localCutoff != null && (cutoff == null || localCutoff > cutoff)) {
+            cutoff = localCutoff;
+        }
+        if (cutoff == null) {
+            return false;
+        }
+        Date issuedAt = claims.getIssuedAt();
+        return issuedAt == null || issuedAt.getTime() / 1000 < cutoff;
+    }
+
+    /**
+     * @param claims Claims of the token.
+     * @return Whether the token can be revoked on its own; tokens issued before revocation existed have no ID.
+     */
+    public static boolean isRevocable(Claims claims) {
+        return claims.getId() != null && claims.getExpiration() != null;
+    }
+
+    /**
+     * Revokes one token.
+     *
+     * @param conn Connection to store the revocation with.
+     * @param claims Claims of the token.
+     * @return Whether the token could be revoked, see {@link #isRevocable}.
+     */
+    public static boolean revokeToken(Connection conn, Claims claims) throws SQLException {
+        if (!isRevocable(claims)) {
+            return false;
+        }
+        String id = claims.getId();
+        Date expiration = claims.getExpiration();
+
+        try (PreparedStatement stmt = conn.prepareStatement(REVOKE_TOKEN_SQL)) {
+            stmt.setString(1, id);
+            stmt.setString(2, id);
+            Integer userId = userId(claims);
+            if (userId != null) {
+                stmt.setInt(3, userId);
+            } else {
+                stmt.setNull(3, java.sql.Types.INTEGER);
+            }
+            stmt.setLong(4, expiration.getTime() / 1000);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            // Revoked at the same time by another request: primary key violation
+            if (e.getErrorCode() != 2627) {
+                throw e;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        LOCAL_TOKEN_IDS.values().removeIf(expiresAt -> expiresAt < now);
+        LOCAL_TOKEN_IDS.put(id, expiration.getTime());
+        SNAPSHOT.reload();
+        return true;
+    }
+
+    /**
+     * Revokes every token of a user issued up to now. Tokens issued in the same second as the revocation are
+     * kept, as issue times only have whole seconds.
+     *
+     * @param conn Connection to store the revocation with.
+     * @param userId The user.
+     * @return The cutoff, in epoch seconds.
+     */
+    public static long revokeUser(Connection conn, int userId) throws SQLException {
+        long cutoff = System.currentTimeMillis() / 1000;
+        try (PreparedStatement stmt = conn.prepareStatement(REVOKE_USER_SQL)) {
+            stmt.setInt(1, userId);
+            stmt.setLong(2, cutoff);
+            stmt.executeUpdate();
+        }
+
+        LOCAL_CUTOFFS.merge(userId, cutoff, Math::max);
+        SNAPSHOT.reload();
+        return cutoff;
+    }
+
+    /**
+     * @return The user ID in the token's subject, or null if it doesn't have one.
+     */
+    static Integer userId(Claims claims) {
+        try {
+            return claims.getSubject() != null ? Integer.valueOf(claims.getSubject()) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Object version(Deadline deadline) throws SQLException, DependencyException, Bulkhead.RejectedException {
+        try (Bulkhead.Permit permit = Bulkhead.SQL_READ.acquire();
+             Connection conn = SqlHelper.connect(System.getenv("SqlConnectionString"), deadline);
+             Statement stmt = conn.createStatement()) {
+            if (!hasTables(stmt)) {
+                return 0;
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT " +
+                    "(SELECT COUNT(*) FROM dbo.[Revoked Token]), (SELECT MAX(Revoked_At) FROM dbo.[Revoked Token]), " +
+                    "(SELECT COUNT(*) FROM dbo.[User Token Cutoff]), (SELECT MAX(Updated_At) FROM dbo.[User Token Cutoff])")) {
+                rs.next();
+                return Arrays.asList(rs.getLong(1), rs.getString(2), rs.getLong(3), rs.getString(4));
+            }
+        }
+    }
+
+    private static TokenRevocation load(Deadline deadline) throws SQLException, DependencyException, Bulkhead.RejectedException {
+        try (Bulkhead.Permit permit = Bulkhead.SQL_READ.acquire();
+             Connection conn = SqlHelper.connect(System.getenv("SqlConnectionString"), deadline);
+             Statement stmt = conn.createStatement()) {
+            Set<String> tokenIds = new HashSet<>();
+            Map<Integer, Long> cutoffs = new HashMap<>();
+            // Nothing can have been revoked before the migration
+            if (!hasTables(stmt)) {
+                return new TokenRevocation(tokenIds, cutoffs);
+            }
+
+            try (ResultSet rs = stmt.executeQuery("SELECT Token_ID FROM dbo.[Revoked Token] " +
+                    "WHERE Expires_At >= SYSUTCDATETIME()")) {
+                while (rs.next()) {
+                    tokenIds.add(rs.getString(1));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT User_ID, DATEDIFF_BIG(SECOND, '1970-01-01', Not_Before) " +
+                    "FROM dbo.[User Token Cutoff]")) {
+                while (rs.next()) {
+                    cutoffs.put(rs.getInt(1), rs.getLong(2));
+                }
+            }
+            return new TokenRevocation(tokenIds, cutoffs);
+        }
+    }
+
+    private static boolean hasTables(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(HAS_TABLES)) {
+            return rs.next() && rs.getInt(1) == 1;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.functions;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChunkedUploadTest {
+
+    private static String encode(String name) {
+        return Base64.getEncoder().encodeToString(name.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void chunkIndexReadsBackBlockIds() {
+        assertEquals(0, ChunkedUpload.chunkIndex(ChunkedUpload.blockId(0)));
+        assertEquals(49999, ChunkedUpload.chunkIndex(ChunkedUpload.blockId(49999)));
+    }
+
+    @Test
+    public void chunkIndexIgnoresForeignBlockIds() {
+        assertEquals(-1, ChunkedUpload.chunkIndex(encode("block-1")));
+        assertEquals(-1, ChunkedUpload.chunkIndex(encode("-0000001")));
+        assertEquals(-1, ChunkedUpload.chunkIndex(encode("000000001")));
+        assertEquals(-1, ChunkedUpload.chunkIndex("not base64!"));
+    }
+
+    @Test
+    public void onlyIssuedUploadIdsAreValid() {
+        assertTrue(ChunkedUpload.isValidUploadId(ChunkedUpload.newUploadId()));
+        assertFalse(ChunkedUpload.isValidUploadId(null));
+        assertFalse(ChunkedUpload.isValidUploadId("Main St_20240101_120000.png"));
+        assertFalse(ChunkedUpload.isValidUploadId("44.000000_-93.000000.png"));
+        assertFalse(ChunkedUpload.isValidUploadId("3F2504E0-4F89-11D3-9A0C-0305E82C3301.png"));
+        assertFalse(ChunkedUpload.isValidUploadId("3f2504e0-4f89-11d3-9a0c-0305e82c3301.png/x"));
+    }
+
+    @Test
+    public void isCompleteRequiresExactlyTheFirstChunks() {
+        assertTrue(ChunkedUpload.isComplete(new TreeSet<>(Arrays.asList(0, 1, 2)), 3));
+        assertFalse(ChunkedUpload.isComplete(new TreeSet<>(Arrays.asList(0, 1, 2)), 2));
+        assertFalse(ChunkedUpload.isComplete(new TreeSet<>(Arrays.asList(1, 2, 3)), 3));
+        assertFalse(ChunkedUpload.isComplete(new TreeSet<>(), 1));
+    }
+}
@@ -0,0 +1,182 @@
+package org.example.functions;
+
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CoalescerTest {
+
+    private static HttpResponseMessage ok(String body) {
+        return new StubRequest().createResponseBuilder(HttpStatus.OK)
+                .header("Content-Type", "application/json")
+                .body(body)
+                .build();
+    }
+
+    private static void hold(CountDownLatch release) {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until a request has joined the one in flight.
+     */
+    private static void awaitJoined(Coalescer coalescer, long count) throws InterruptedException {
+        for (int i = 0; i < 500 && (long) coalescer.metrics().get("joined") < count; i++) {
+            Thread.sleep(2);
+        }
+        assertEquals(count, coalescer.metrics().get("joined"));
+    }
+
+    @Test
+    public void identicalRequestsInFlightShareOneResponse() throws Exception {
+        Coalescer coalescer = new Coalescer("Test", 0);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<HttpResponseMessage> first = pool.submit(() -> coalescer.call(new StubRequest(), "type=Stop",
+                    Deadline.after(5000), () -> {
+                        runs.incrementAndGet();
+                        hold(release);
+                        return ok("[1]");
+                    }));
+            for (int i = 0; i < 500 && runs.get() == 0; i++) {
+                Thread.sleep(2);
+            }
+            Future<HttpResponseMessage> second = pool.submit(() -> coalescer.call(new StubRequest(), "type=Stop",
+                    Deadline.after(5000), () -> {
+                        runs.incrementAndGet();
+                        return ok("[2]");
+                    }));
+            awaitJoined(coalescer, 1);
+            release.countDown();
+
+            assertEquals("[1]", first.get(5, TimeUnit.SECONDS).getBody());
+            HttpResponseMessage shared = second.get(5, TimeUnit.SECONDS);
+            assertEquals("[1]", shared.getBody());
+            assertEquals("application/json", shared.getHeader("Content-Type"));
+            assertEquals(1, runs.get());
+            // Nothing kept without a grace period
+            assertEquals(0, coalescer.metrics().get("held"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitersAnswerOnTheirOwnWhenTheLeaderFails() throws Exception {
+        Coalescer coalescer = new Coalescer("Test", 0);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<HttpResponseMessage> first = pool.submit(() -> coalescer.call(new StubRequest(), "",
+                    Deadline.after(5000), () -> {
+                        runs.incrementAndGet();
+                        hold(release);
+                        throw new IllegalStateException("leader failed");
+                    }));
+            for (int i = 0; i < 500 && runs.get() == 0; i++) {
+                Thread.sleep(2);
+            }
+            Future<HttpResponseMessage> second = pool.submit(() -> coalescer.call(new StubRequest(), "",
+                    Deadline.after(5000), () -> {
+                        runs.incrementAndGet();
+                        return ok("[own]");
+                    }));
+            awaitJoined(coalescer, 1);
+            release.countDown();
+
+            Exception e = assertThrows(Exception.class, () -> first.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals("[own]", second.get(5, TimeUnit.SECONDS).getBody());
+            assertEquals(2, runs.get());
+            assertEquals(0, coalescer.metrics().get("held"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waiterGivesUpAtItsDeadline() throws Exception {
+        Coalescer coalescer = new Coalescer("Test", 0);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            Future<HttpResponseMessage> first = pool.submit(() -> coalescer.call(new StubRequest(), "",
+                    Deadline.after(5000), () -> {
+                        started.countDown();
+                        hold(release);
+                        return ok("[1]");
+                    }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            DependencyException e = assertThrows(DependencyException.class, () -> coalescer.call(new StubRequest(),
+                    "", Deadline.after(50), () -> ok("[2]")));
+            assertTrue(e.timedOut);
+
+            release.countDown();
+            assertEquals("[1]", first.get(5, TimeUnit.SECONDS).getBody());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void graceWindowReusesOnlySuccessfulResponses() throws Exception {
+        Coalescer coalescer = new Coalescer("Test", 60000);
+        AtomicInteger runs = new AtomicInteger();
+
+        assertEquals("[1]", coalescer.call(new StubRequest(), "a", Deadline.after(1000),
+                () -> ok("[" + runs.incrementAndGet() + "]")).getBody());
+        assertEquals("[1]", coalescer.call(new StubRequest(), "a", Deadline.after(1000),
+                () -> ok("[" + runs.incrementAndGet() + "]")).getBody());
+        assertEquals(1L, coalescer.metrics().get("graceHits"));
+
+        // Other parameters, or another negotiated format, are another response
+        assertEquals("[2]", coalescer.call(new StubRequest(), "b", Deadline.after(1000),
+                () -> ok("[" + runs.incrementAndGet() + "]")).getBody());
+        assertEquals("[3]", coalescer.call(new StubRequest().header("Accept", "application/cbor"), "a",
+                Deadline.after(1000), () -> ok("[" + runs.incrementAndGet() + "]")).getBody());
+
+        // Errors are never reused
+        for (int i = 0; i < 2; i++) {
+            HttpResponseMessage error = coalescer.call(new StubRequest(), "c", Deadline.after(1000), () -> {
+                runs.incrementAndGet();
+                return new StubRequest().createResponseBuilder(HttpStatus.SERVICE_UNAVAILABLE).build();
+            });
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, error.getStatus());
+        }
+        assertEquals(5, runs.get());
+        assertEquals(1L, coalescer.metrics().get("graceHits"));
+    }
+
+    @Test
+    public void expiredGraceEntriesAreReplaced() throws Exception {
+        Coalescer coalescer = new Coalescer("Test", 20);
+        AtomicInteger runs = new AtomicInteger();
+
+        coalescer.call(new StubRequest(), "a", Deadline.after(1000), () -> ok("[" + runs.incrementAndGet() + "]"));
+        Thread.sleep(40);
+        assertEquals("[2]", coalescer.call(new StubRequest(), "a", Deadline.after(1000),
+                () -> ok("[" + runs.incrementAndGet() + "]")).getBody());
+        assertEquals(0L, coalescer.metrics().get("graceHits"));
+        assertEquals(1, coalescer.metrics().get("held"));
+    }
+}
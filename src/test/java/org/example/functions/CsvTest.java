@@ -0,0 +1,69 @@
+package org.example.functions;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CsvTest {
+
+    private static Csv.Reader reader(String csv) {
+        return new Csv.Reader(new BufferedReader(new StringReader(csv)));
+    }
+
+    @Test
+    public void readsQuotedFieldsAndBothLineEndings() throws IOException {
+        Csv.Reader reader = reader("a,b,c\r\n1,\"x,\"\"y\"\"\",\r\n\r\n2,\"multi\nline\",z\n3,,\n4");
+
+        assertEquals(Arrays.asList("a", "b", "c"), reader.next());
+        assertEquals(1, reader.line());
+        assertEquals(Arrays.asList("1", "x,\"y\"", ""), reader.next());
+        assertEquals(2, reader.line());
+        // The blank line is skipped, and the quoted line break counts toward line numbers
+        assertEquals(Arrays.asList("2", "multi\nline", "z"), reader.next());
+        assertEquals(4, reader.line());
+        assertEquals(Arrays.asList("3", "", ""), reader.next());
+        assertEquals(6, reader.line());
+        assertEquals(Collections.singletonList("4"), reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void quoteInsideAnUnquotedFieldIsKept() throws IOException {
+        assertEquals(Arrays.asList("5\" sign", "x"), reader("5\" sign,x").next());
+    }
+
+    @Test
+    public void unclosedQuoteIsAnError() {
+        IOException e = assertThrows(IOException.class, () -> {
+            Csv.Reader reader = reader("a\n\"open,b\n");
+            reader.next();
+            reader.next();
+        });
+        assertEquals("Unclosed quote in record starting on line 2", e.getMessage());
+    }
+
+    @Test
+    public void writesOnlyFieldsThatNeedQuoting() throws IOException {
+        StringWriter writer = new StringWriter();
+        Csv.writeRecord(writer, "a", null, "b,\"c\"", 3, "two\r\nlines");
+
+        assertEquals("a,,\"b,\"\"c\"\"\",3,\"two\r\nlines\"\r\n", writer.toString());
+    }
+
+    @Test
+    public void writtenRecordsReadBack() throws IOException {
+        StringWriter writer = new StringWriter();
+        Csv.writeRecord(writer, "Main St", "Near \"the\" park, north", "", "1.5");
+
+        assertEquals(Arrays.asList("Main St", "Near \"the\" park, north", "", "1.5"), reader(writer.toString()).next());
+    }
+}
@@ -0,0 +1,136 @@
+package org.example.functions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.microsoft.azure.functions.HttpResponseMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compares the JSON, CBOR and Smile table responses on real rows of SLD SRI Master, SLD Maintenance Crew and
+ * Signage. Rows are read the way the endpoints read them and sent through {@link ResponseHelper#rows}, so the
+ * sizes are what a client would download. Run by scripts/format-benchmark.sh, which documents the settings.
+ *
+ * Prints CSV: per table and format the row count, body size uncompressed/gzip/zstd, and the median time to
+ * build the response (serialize and compress) and for a client to decompress and parse the gzip body.
+ */
+public class FormatBenchmark {
+    private static final String[] FORMATS = {ResponseHelper.JSON, ResponseHelper.CBOR, ResponseHelper.SMILE};
+
+    private static final Map<String, String[]> TABLES = new LinkedHashMap<>();
+    static {
+        // Same columns as GetSRI, GetMaintenanceCrew and GetDataForImageSignage
+        TABLES.put("SLD SRI Master", new String[]{"ID", "SRI", "Start_Milepost", "End_Milepost", "Direction",
+                "Name", "Parent_SRI", "Parent_Start_Milepost", "Parent_End_Milepost", "Last_Update_Date"});
+        TABLES.put("SLD Maintenance Crew", new String[]{"ID", "SRI", "Start_Milepost", "End_Milepost",
+                "Crew_Type", "Crew_Id", "Last_Update_Date"});
+        TABLES.put("Signage", SignageLookup.COLUMNS);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = Integer.parseInt(envOr("ROWS", "20000"));
+        int runs = Integer.parseInt(envOr("RUNS", "7"));
+        String connectionString = System.getenv("SqlConnectionString");
+        if (connectionString == null || connectionString.isEmpty()) {
+            throw new IllegalStateException("SqlConnectionString must be set");
+        }
+
+        System.out.println("table,rows,format,identity_bytes,gzip_bytes,zstd_bytes,build_ms,gzip_parse_ms");
+        for (Map.Entry<String, String[]> table : TABLES.entrySet()) {
+            List<Map<String, Object>> results = read(connectionString, table.getKey(), table.getValue(), rows);
+            for (String format : FORMATS) {
+                bench(table.getKey(), results, format, runs);
+            }
+        }
+    }
+
+    private static List<Map<String, Object>> read(String connectionString, String table, String[] columns, int rows)
+            throws Exception {
+        String query = "SELECT TOP (?) " + String.join(", ", columns) + " FROM [dbo].[" + table + "] ORDER BY ID";
+        try (Connection conn = SqlHelper.connect(connectionString, Deadline.after(5 * 60 * 1000L));
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setInt(1, rows);
+            List<Map<String, Object>> results = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> row = new HashMap<>();
+                    for (String col : columns) {
+                        row.put(col, rs.getObject(col));
+                    }
+                    results.add(row);
+                }
+            }
+            return results;
+        }
+    }
+
+    private static void bench(String table, List<Map<String, Object>> results, String format, int runs)
+            throws IOException {
+        ObjectMapper mapper = mapper(format);
+        long identity = body(respond(results, format, ResponseHelper.IDENTITY)).length;
+        long zstd = body(respond(results, format, ResponseHelper.ZSTD)).length;
+
+        long[] build = new long[runs];
+        long[] parse = new long[runs];
+        byte[] gzip = null;
+        // One untimed round first, to warm up
+        for (int i = -1; i < runs; i++) {
+            long start = System.nanoTime();
+            gzip = body(respond(results, format, ResponseHelper.GZIP));
+            long built = System.nanoTime();
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+                mapper.readValue(in, List.class);
+            }
+            long parsed = System.nanoTime();
+            if (i >= 0) {
+                build[i] = built - start;
+                parse[i] = parsed - built;
+            }
+        }
+
+        System.out.printf("%s,%d,%s,%d,%d,%d,%.1f,%.1f%n", table, results.size(), format, identity, gzip.length,
+                zstd, median(build) / 1e6, median(parse) / 1e6);
+    }
+
+    private static HttpResponseMessage respond(List<Map<String, Object>> results, String format, String encoding) {
+        StubRequest request = new StubRequest().header("Accept", format).header("Accept-Encoding", encoding);
+        return ResponseHelper.rows(request, results);
+    }
+
+    private static byte[] body(HttpResponseMessage response) {
+        return (byte[]) response.getBody();
+    }
+
+    private static ObjectMapper mapper(String format) {
+        if (ResponseHelper.CBOR.equals(format)) {
+            return new ObjectMapper(new CBORFactory());
+        }
+        if (ResponseHelper.SMILE.equals(format)) {
+            return new ObjectMapper(new SmileFactory());
+        }
+        return new ObjectMapper();
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String envOr(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
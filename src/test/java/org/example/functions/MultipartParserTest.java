@@ -0,0 +1,94 @@
+package org.example.functions;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MultipartParserTest {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void getBoundaryReadsPlainAndQuotedBoundaries() {
+        assertEquals("abc", MultipartParser.getBoundary("multipart/form-data; boundary=abc"));
+        assertEquals("a b", MultipartParser.getBoundary("Multipart/Form-Data; charset=utf-8; BOUNDARY=\"a b\""));
+        assertNull(MultipartParser.getBoundary("application/json"));
+        assertNull(MultipartParser.getBoundary("multipart/form-data; boundary="));
+        assertNull(MultipartParser.getBoundary(null));
+    }
+
+    @Test
+    public void parseSplitsPartsWithoutCopyingContent() throws Exception {
+        byte[] body = bytes("preamble\r\n"
+                + "--XX\r\n"
+                + "Content-Disposition: form-data; name=\"metadata\"\r\n"
+                + "\r\n"
+                + "{\"a\":1}\r\n"
+                + "--XX\r\n"
+                + "Content-Disposition: form-data; name=\"image\"; filename=\"sign.png\"\r\n"
+                + "Content-Type: image/png\r\n"
+                + "\r\n"
+                + "\u0089PNG\r\n\u0000ÿ\r\n"
+                + "--XX--\r\n");
+
+        List<MultipartParser.Part> parts = MultipartParser.parse(body, "XX");
+
+        assertEquals(2, parts.size());
+        MultipartParser.Part metadata = MultipartParser.find(parts, "metadata");
+        assertEquals("{\"a\":1}", metadata.asString());
+        assertNull(metadata.filename);
+        assertFalse(metadata.isFile());
+
+        MultipartParser.Part image = MultipartParser.find(parts, "image");
+        assertEquals("sign.png", image.filename);
+        assertEquals("image/png", image.contentType);
+        assertTrue(image.isFile());
+        // Line breaks inside the content are kept, only the one before the delimiter is dropped
+        byte[] content = new byte[image.length];
+        System.arraycopy(body, image.offset, content, 0, image.length);
+        assertArrayEquals(bytes("\u0089PNG\r\n\u0000ÿ"), content);
+    }
+
+    @Test
+    public void partWithImageContentTypeIsAFileWithoutFilename() throws Exception {
+        byte[] body = bytes("--b\r\n"
+                + "Content-Disposition: form-data; name=\"photo\"\r\n"
+                + "Content-Type: IMAGE/JPEG\r\n"
+                + "\r\n"
+                + "jpg\r\n"
+                + "--b--");
+
+        MultipartParser.Part part = MultipartParser.parse(body, "b").get(0);
+
+        assertTrue(part.isFile());
+        assertEquals("jpg", part.asString());
+    }
+
+    @Test
+    public void findReturnsNullForMissingField() throws Exception {
+        List<MultipartParser.Part> parts = MultipartParser.parse(
+                bytes("--b\r\nContent-Disposition: form-data; name=\"note\"\r\n\r\nx\r\n--b--"), "b");
+
+        assertNull(MultipartParser.find(parts, "image"));
+    }
+
+    @Test
+    public void malformedBodiesAreRejected() {
+        assertThrows(MultipartParser.InvalidBodyException.class,
+                () -> MultipartParser.parse(bytes("no boundary here"), "b"));
+        assertThrows(MultipartParser.InvalidBodyException.class,
+                () -> MultipartParser.parse(bytes("--b\r\nContent-Disposition: form-data"), "b"));
+        assertThrows(MultipartParser.InvalidBodyException.class,
+                () -> MultipartParser.parse(bytes("--b\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\nx"), "b"));
+    }
+}
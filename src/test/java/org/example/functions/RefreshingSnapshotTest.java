@@ -0,0 +1,91 @@
+package org.example.functions;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RefreshingSnapshotTest {
+
+    @Test
+    public void failedFirstLoadIsNotRetriedRightAway() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        AtomicBoolean broken = new AtomicBoolean(true);
+        RefreshingSnapshot<String> snapshot = new RefreshingSnapshot<>("Test data", 60000, 1000, deadline -> {
+            loads.incrementAndGet();
+            if (broken.get()) {
+                throw new IllegalStateException("down");
+            }
+            return "data";
+        });
+
+        assertThrows(DependencyException.class, () -> snapshot.get(Deadline.after(1000)));
+        assertEquals(1, snapshot.failures());
+
+        // Within the first retry delay: fails at once, without loading
+        DependencyException e = assertThrows(DependencyException.class, () -> snapshot.get(Deadline.after(1000)));
+        assertTrue(e.retryAfterSeconds >= 1);
+        assertEquals(1, loads.get());
+
+        broken.set(false);
+        Thread.sleep(1100);
+        assertEquals("data", snapshot.get(Deadline.after(1000)));
+        assertEquals(2, loads.get());
+        assertEquals(0, snapshot.failures());
+        assertTrue(snapshot.checkedAt() > 0);
+    }
+
+    @Test
+    public void failedReloadKeepsServingTheLoadedData() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        RefreshingSnapshot<Integer> snapshot = new RefreshingSnapshot<>("Test counter", 0, 1000, deadline -> {
+            if (loads.incrementAndGet() > 1) {
+                throw new IllegalStateException("down");
+            }
+            return 1;
+        });
+
+        assertEquals(1, snapshot.get(Deadline.after(1000)));
+        long checkedAt = snapshot.checkedAt();
+
+        // Always due for a check, but a failed one isn't repeated until its delay is over
+        for (int i = 0; i < 20; i++) {
+            assertEquals(1, snapshot.get(Deadline.after(1000)));
+            Thread.sleep(5);
+        }
+        assertEquals(2, loads.get());
+        assertEquals(1, snapshot.failures());
+        assertEquals(checkedAt, snapshot.checkedAt());
+    }
+
+    @Test
+    public void staleDataIsCheckedBeforeItIsUsed() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        AtomicBoolean broken = new AtomicBoolean();
+        RefreshingSnapshot<Integer> snapshot = new RefreshingSnapshot<>("Test revocations", 60000, 1000, deadline -> {
+            if (broken.get()) {
+                throw new IllegalStateException("down");
+            }
+            return loads.incrementAndGet();
+        });
+
+        assertEquals(1, snapshot.get(Deadline.after(1000), 50));
+        assertEquals(1, snapshot.get(Deadline.after(1000), 50));
+
+        Thread.sleep(60);
+        assertEquals(2, snapshot.get(Deadline.after(1000), 50));
+
+        // Refused rather than served once it's too old to be trusted
+        broken.set(true);
+        Thread.sleep(60);
+        assertThrows(DependencyException.class, () -> snapshot.get(Deadline.after(1000), 50));
+        assertThrows(DependencyException.class, () -> snapshot.get(Deadline.after(1000), 50));
+        assertEquals(1, snapshot.failures());
+        // Still there for reads that can do with it
+        assertEquals(2, snapshot.get(Deadline.after(1000)));
+    }
+}
@@ -0,0 +1,135 @@
+package org.example.functions;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SignageSearchTest {
+
+    @Test
+    public void normalizeLowerCasesAndCollapsesPunctuation() {
+        assertEquals("main st n", SignageSearch.normalize("  MAIN St., N "));
+        assertEquals("o brien rd", SignageSearch.normalize("O'Brien--Rd"));
+        assertEquals("", SignageSearch.normalize(null));
+    }
+
+    @Test
+    public void ranksExactThenPrefixThenWordPrefixThenInfix() {
+        SignageSearch search = SignageSearch.build(
+                Arrays.asList(5, 4, 3, 2, 1),
+                Arrays.asList("5.png", "4.png", "3.png", "2.png", "1.png"),
+                Arrays.asList("Remain Rd", "North Main St", "Main Street", "Main St", "Fountain Ave"),
+                Arrays.asList(null, null, null, null, null));
+
+        List<Map<String, Object>> results = search.search("main st", SignageSearch.STREET, 10);
+        assertEquals(3, results.size());
+        assertEquals("Main St", results.get(0).get("street"));
+        assertEquals(100, results.get(0).get("score"));
+        assertEquals("Main Street", results.get(1).get("street"));
+        assertEquals(80, results.get(1).get("score"));
+        assertEquals("North Main St", results.get(2).get("street"));
+        assertEquals(60, results.get(2).get("score"));
+
+        results = search.search("ain", SignageSearch.STREET, 10);
+        assertEquals(5, results.size());
+        assertEquals(40, results.get(0).get("score"));
+    }
+
+    @Test
+    public void shortWordsOnlyMatchAtTheStartOfWords() {
+        SignageSearch search = SignageSearch.build(
+                Arrays.asList(3, 2, 1),
+                Arrays.asList("3.png", "2.png", "1.png"),
+                Arrays.asList("Elm St", "Maple Ave", "Old Mill Rd"),
+                Arrays.asList(null, null, null));
+
+        List<Map<String, Object>> results = search.search("m", SignageSearch.STREET, 10);
+        assertEquals(2, results.size());
+        assertTrue(results.stream().anyMatch(result -> "Maple Ave".equals(result.get("street"))));
+        assertTrue(results.stream().anyMatch(result -> "Old Mill Rd".equals(result.get("street"))));
+
+        assertEquals(1, search.search("ol mi", SignageSearch.STREET, 10).size());
+        assertEquals(0, search.search("lm", SignageSearch.STREET, 10).size());
+    }
+
+    @Test
+    public void equalMatchesRankShorterThenNewerFirst() {
+        SignageSearch search = SignageSearch.build(
+                Arrays.asList(4, 3, 2, 1),
+                Arrays.asList("4.png", "3.png", "2.png", "1.png"),
+                Arrays.asList("Oak St", "Oak Street", "Oak St", "Oak Ave"),
+                Arrays.asList(null, null, null, null));
+
+        List<Map<String, Object>> results = search.search("oak", SignageSearch.STREET, 10);
+        assertEquals(4, results.get(0).get("id"));
+        assertEquals(2, results.get(1).get("id"));
+        assertEquals(1, results.get(2).get("id"));
+        assertEquals(3, results.get(3).get("id"));
+    }
+
+    @Test
+    public void searchesOnlyTheRequestedFieldsAndListsEachRecordOnce() {
+        SignageSearch search = SignageSearch.build(
+                Arrays.asList(2, 1),
+                Arrays.asList("2.png", "1.png"),
+                Arrays.asList("Park Ave", "High St"),
+                Arrays.asList("Park entrance", "Near the park"));
+
+        assertEquals(2, search.search("park", SignageSearch.STREET | SignageSearch.LOCATION, 10).size());
+        List<Map<String, Object>> streetOnly = search.search("park", SignageSearch.STREET, 10);
+        assertEquals(1, streetOnly.size());
+        assertEquals(2, streetOnly.get(0).get("id"));
+        List<Map<String, Object>> locationOnly = search.search("park", SignageSearch.LOCATION, 10);
+        assertEquals(2, locationOnly.size());
+        // "Park entrance" starts with the query, "Near the park" only has it as a word
+        assertEquals(2, locationOnly.get(0).get("id"));
+    }
+
+    @Test
+    public void stopsAtTheLimit() {
+        List<Integer> ids = new ArrayList<>();
+        List<String> streets = new ArrayList<>();
+        for (int id = 50; id > 0; id--) {
+            ids.add(id);
+            streets.add("Cedar Ln " + id);
+        }
+        SignageSearch search = SignageSearch.build(ids, Collections.nCopies(50, "cedar.png"), streets,
+                Collections.nCopies(50, null));
+
+        assertEquals(7, search.search("cedar", SignageSearch.STREET, 7).size());
+        assertEquals(0, search.search("   ", SignageSearch.STREET, 7).size());
+        assertEquals(0, search.search("birch", SignageSearch.STREET, 7).size());
+    }
+
+    @Test
+    public void newerRowsGoAheadOfTheIndexedOnes() {
+        SignageSearch search = SignageSearch.build(
+                Arrays.asList(2, 1),
+                Arrays.asList("2.png", "1.png"),
+                Arrays.asList("Birch Rd", "Birch Ln"),
+                Arrays.asList(null, null));
+
+        SignageSearch newer = search.withNewer(
+                Arrays.asList(4, 3),
+                Arrays.asList("4.png", "3.png"),
+                Arrays.asList("Birch Rd", "Birchwood Dr"),
+                Arrays.asList(null, "Birch Rd and 1st"));
+
+        List<Map<String, Object>> results = newer.search("birch rd", SignageSearch.STREET | SignageSearch.LOCATION, 10);
+        assertEquals(3, results.size());
+        assertEquals(4, results.get(0).get("id"));
+        assertEquals("4.png", results.get(0).get("image"));
+        assertEquals(2, results.get(1).get("id"));
+        assertEquals(3, results.get(2).get("id"));
+        assertEquals(4, newer.search("birch", SignageSearch.STREET, 10).size());
+        // The old index is left as it was
+        assertEquals(1, search.search("birch rd", SignageSearch.STREET, 10).size());
+    }
+}
@@ -0,0 +1,99 @@
+package org.example.functions;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class SriHierarchyTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void composesMapsUpTheChain() {
+        SriHierarchy hierarchy = SriHierarchy.build(
+                Arrays.asList("A", "B", "C"),
+                Arrays.asList("Route A", "Route B", "Route C"),
+                Arrays.asList(new double[]{0, 10, 100, 110}, new double[]{100, 120, 0, 40}, new double[]{0, 40, 0, 0}),
+                Arrays.asList("B", "C", null));
+
+        List<SriHierarchy.Point> ancestors = hierarchy.ancestors("A", 5);
+        assertEquals(2, ancestors.size());
+        assertEquals("B", ancestors.get(0).sri);
+        assertEquals(105, ancestors.get(0).milepost, DELTA);
+        assertEquals("C", ancestors.get(1).sri);
+        assertEquals(10, ancestors.get(1).milepost, DELTA);
+
+        assertEquals(10, hierarchy.translate("A", 5, null).milepost, DELTA);
+        assertEquals(105, hierarchy.translate("a", 5, "b").milepost, DELTA);
+        assertEquals(5, hierarchy.translate("A", 5, "A").milepost, DELTA);
+    }
+
+    @Test
+    public void reversedParentRangeFlipsDirection() {
+        SriHierarchy hierarchy = SriHierarchy.build(
+                Arrays.asList("A", "B"),
+                Arrays.asList("Route A", "Route B"),
+                Arrays.asList(new double[]{0, 10, 20, 10}, new double[]{0, 30, 0, 0}),
+                Arrays.asList("B", null));
+
+        assertEquals(18, hierarchy.translate("A", 2, "B").milepost, DELTA);
+    }
+
+    @Test
+    public void fallsBackToWalkingWhenChildSpansParentSegments() {
+        // A's range falls on both segments of B, which have different parents
+        SriHierarchy hierarchy = SriHierarchy.build(
+                Arrays.asList("A", "B", "B", "C", "D"),
+                Arrays.asList("Route A", "Route B", "Route B", "Route C", "Route D"),
+                Arrays.asList(new double[]{0, 10, 100, 110}, new double[]{100, 104, 0, 4},
+                        new double[]{104, 120, 50, 66}, new double[]{0, 10, 0, 0}, new double[]{0, 100, 0, 0}),
+                Arrays.asList("B", "C", "D", null, null));
+
+        // On the segment the precomputed path goes through
+        List<SriHierarchy.Point> ancestors = hierarchy.ancestors("A", 8);
+        assertEquals("B", ancestors.get(0).sri);
+        assertEquals(108, ancestors.get(0).milepost, DELTA);
+        assertEquals("D", ancestors.get(1).sri);
+        assertEquals(54, ancestors.get(1).milepost, DELTA);
+
+        // On the other one: walked segment by segment instead
+        ancestors = hierarchy.ancestors("A", 1);
+        assertEquals(2, ancestors.size());
+        assertEquals("B", ancestors.get(0).sri);
+        assertEquals(101, ancestors.get(0).milepost, DELTA);
+        assertEquals("C", ancestors.get(1).sri);
+        assertEquals(1, ancestors.get(1).milepost, DELTA);
+    }
+
+    @Test
+    public void unknownRoutesMilepostsAndTargetsGiveNull() {
+        SriHierarchy hierarchy = SriHierarchy.build(
+                Arrays.asList("A", "B", "E"),
+                Arrays.asList("Route A", "Route B", "Route E"),
+                Arrays.asList(new double[]{0, 10, 0, 10}, new double[]{0, 10, 0, 0}, new double[]{0, 5, 0, 0}),
+                Arrays.asList("B", null, null));
+
+        assertNull(hierarchy.translate("X", 1, null));
+        assertNull(hierarchy.translate("A", 11, null));
+        assertNull(hierarchy.translate("A", 1, "E"));
+        assertNull(hierarchy.ancestors("A", -1));
+        assertEquals(0, hierarchy.startOf("a"), DELTA);
+        assertNull(hierarchy.startOf("X"));
+    }
+
+    @Test
+    public void cycleInTheDataStopsAtMaxDepth() {
+        SriHierarchy hierarchy = SriHierarchy.build(
+                Arrays.asList("A", "B"),
+                Arrays.asList("Route A", "Route B"),
+                Arrays.asList(new double[]{0, 10, 0, 10}, new double[]{0, 10, 0, 10}),
+                Arrays.asList("B", "A"));
+
+        List<SriHierarchy.Point> ancestors = hierarchy.ancestors("A", 5);
+        assertEquals(64, ancestors.size());
+        assertEquals(5, ancestors.get(63).milepost, DELTA);
+    }
+}
@@ -0,0 +1,115 @@
+package org.example.functions;
+
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.HttpStatusType;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An HTTP request as the Functions runtime would pass it in, for calling helpers outside the host.
+ */
+class StubRequest implements HttpRequestMessage<Optional<String>> {
+    // The runtime passes header names in lower case
+    private final Map<String, String> headers = new HashMap<>();
+    private final Map<String, String> query = new HashMap<>();
+
+    StubRequest header(String name, String value) {
+        headers.put(name.toLowerCase(Locale.ROOT), value);
+        return this;
+    }
+
+    StubRequest query(String name, String value) {
+        query.put(name, value);
+        return this;
+    }
+
+    @Override
+    public URI getUri() {
+        return URI.create("http://localhost/api/test");
+    }
+
+    @Override
+    public HttpMethod getHttpMethod() {
+        return HttpMethod.GET;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public Map<String, String> getQueryParameters() {
+        return query;
+    }
+
+    @Override
+    public Optional<String> getBody() {
+        return Optional.empty();
+    }
+
+    @Override
+    public HttpResponseMessage.Builder createResponseBuilder(HttpStatus status) {
+        return new Response(status);
+    }
+
+    @Override
+    public HttpResponseMessage.Builder createResponseBuilder(HttpStatusType status) {
+        return new Response(status);
+    }
+
+    static class Response implements HttpResponseMessage, HttpResponseMessage.Builder {
+        private HttpStatusType status;
+        private final Map<String, String> headers = new HashMap<>();
+        private Object body;
+
+        Response(HttpStatusType status) {
+            this.status = status;
+        }
+
+        @Override
+        public HttpResponseMessage.Builder status(HttpStatusType status) {
+            this.status = status;
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage.Builder header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage.Builder body(Object body) {
+            this.body = body;
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage build() {
+            return this;
+        }
+
+        @Override
+        public HttpStatusType getStatus() {
+            return status;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public Object getBody() {
+            return body;
+        }
+    }
+}